@@ -252,10 +252,7 @@ public class ControlsFragment extends Fragment {
 	}
 
 	private void resyncSdk() {
-		new Thread(() -> {
-			DP3T.sync(getContext());
-			new Handler(getContext().getMainLooper()).post(this::updateSdkStatus);
-		}).start();
+		DP3T.syncAsync(getContext(), syncResult -> updateSdkStatus());
 	}
 
 	private void updateSdkStatus() {
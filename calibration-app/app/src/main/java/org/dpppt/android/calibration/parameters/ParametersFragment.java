@@ -11,6 +11,7 @@ package org.dpppt.android.calibration.parameters;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -26,7 +27,12 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import com.google.android.gms.nearby.exposurenotification.ExposureWindow;
 
 import org.dpppt.android.calibration.R;
 import org.dpppt.android.calibration.handshakes.BackendCalibrationReportRepository;
@@ -36,11 +42,17 @@ import org.dpppt.android.sdk.backend.ResponseCallback;
 import org.dpppt.android.sdk.internal.AppConfigManager;
 import org.dpppt.android.sdk.internal.backend.models.GaenRequest;
 import org.dpppt.android.sdk.internal.nearby.GoogleExposureClient;
+import org.dpppt.android.sdk.internal.nearby.MatchingParameters;
+import org.dpppt.android.sdk.internal.nearby.MatchingSweep;
+import org.dpppt.android.sdk.models.DayDate;
 import org.dpppt.android.sdk.util.DateUtil;
 
 public class ParametersFragment extends Fragment {
 
 	private static final int RESOLUTION_REQUEST_CODE = 123;
+	private static final int SWEEP_THRESHOLD_MIN = 40;
+	private static final int SWEEP_THRESHOLD_MAX = 70;
+	private static final float[] SWEEP_FACTORS_MEDIUM = { 0.0f, 0.25f, 0.5f, 0.75f, 1.0f };
 
 	AppConfigManager appConfigManager;
 	EditText experimentIdEditText;
@@ -69,6 +81,10 @@ public class ParametersFragment extends Fragment {
 		Button deanonymizationButton = view.findViewById(R.id.deanonymization_key_upload_button);
 		deanonymizationButton.setOnClickListener(v -> uploadKeys());
 
+		TextView sweepResult = view.findViewById(R.id.matching_sweep_result);
+		Button sweepButton = view.findViewById(R.id.matching_sweep_button);
+		sweepButton.setOnClickListener(v -> runMatchingSweep(sweepButton, sweepResult));
+
 		experimentIdEditText.setText(DP3TCalibrationHelper.getInstance(getContext()).getExperimentName());
 		deviceIdEditText.setText(DP3TCalibrationHelper.getInstance(getContext()).getCalibrationTestDeviceName());
 
@@ -116,6 +132,70 @@ public class ParametersFragment extends Fragment {
 				});
 	}
 
+	private void runMatchingSweep(Button sweepButton, TextView sweepResult) {
+		Context context = requireContext().getApplicationContext();
+		sweepButton.setEnabled(false);
+		sweepResult.setText("Loading...");
+		new Thread(() -> {
+			String text;
+			try {
+				text = sweepMatchingParameters(context);
+			} catch (Exception e) {
+				text = "Exception: " + e.getMessage();
+			}
+			String resultText = text;
+			sweepResult.post(() -> {
+				sweepButton.setEnabled(true);
+				sweepResult.setText(resultText);
+			});
+		}).start();
+	}
+
+	private static String sweepMatchingParameters(Context context) throws Exception {
+		List<ExposureWindow> exposureWindows = GoogleExposureClient.getInstance(context).getExposureWindowsBlocking();
+		AppConfigManager appConfigManager = AppConfigManager.getInstance(context);
+		int minDuration = appConfigManager.getMinDurationForExposure();
+		int numberOfDays = appConfigManager.getNumberOfDaysToConsiderForExposure();
+
+		// the current configuration is the first one
+		List<MatchingParameters> configurations = new ArrayList<>();
+		configurations.add(MatchingParameters.fromConfig(appConfigManager));
+		for (int thresholdLow = SWEEP_THRESHOLD_MIN; thresholdLow <= SWEEP_THRESHOLD_MAX; thresholdLow++) {
+			for (int thresholdMedium = thresholdLow + 1; thresholdMedium <= thresholdLow + 16; thresholdMedium += 3) {
+				for (float factorMedium : SWEEP_FACTORS_MEDIUM) {
+					configurations.add(
+							new MatchingParameters(thresholdLow, thresholdMedium, 1.0f, factorMedium, minDuration, numberOfDays));
+				}
+			}
+		}
+
+		long start = System.nanoTime();
+		MatchingSweep.Result result = MatchingSweep.evaluate(exposureWindows, configurations, System.currentTimeMillis());
+		long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		StringBuilder text = new StringBuilder();
+		text.append(configurations.size()).append(" configurations, ")
+				.append(exposureWindows.size()).append(" windows, ")
+				.append(durationMillis).append(" ms\n");
+		for (int dayIndex = 0; dayIndex < result.getNumberOfDays(); dayIndex++) {
+			int exposedConfigurations = 0;
+			for (int c = 0; c < result.getNumberOfConfigurations(); c++) {
+				if (result.isExposureLimitReached(c, dayIndex)) {
+					exposedConfigurations++;
+				}
+			}
+			if (exposedConfigurations == 0) {
+				continue;
+			}
+			DayDate day = new DayDate(TimeUnit.DAYS.toMillis(result.getOldestDay() + dayIndex));
+			text.append(day.formatAsString())
+					.append(": exposed in ").append(exposedConfigurations).append(" configurations, current ")
+					.append(result.isExposureLimitReached(0, dayIndex) ? "exposed" : "not exposed")
+					.append(" with ").append(result.getWeightedMinutes(0, dayIndex)).append(" min\n");
+		}
+		return text.toString();
+	}
+
 	@Override
 	public void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
 		if (requestCode == RESOLUTION_REQUEST_CODE && resultCode == Activity.RESULT_OK) {
@@ -10,6 +10,7 @@
 -keep class * implements com.google.gson.TypeAdapterFactory
 -keep class * implements com.google.gson.JsonSerializer
 -keep class * implements com.google.gson.JsonDeserializer
+-keepattributes RuntimeVisibleAnnotations
 
 # io.jsonwebtoken:jjwt
 -keepattributes InnerClasses
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.dpppt.android.sdk.internal.util.Json;
+import org.dpppt.android.sdk.models.DayDate;
+import org.dpppt.android.sdk.models.ExposureDay;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DayDateTest {
+
+	@Test
+	public void testFormatAndParseMatchSimpleDateFormat() throws ParseException {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		// every day from 1900 to 2100
+		for (long epochDay = -25567; epochDay <= 47482; epochDay++) {
+			DayDate dayDate = DayDate.fromEpochDay(epochDay);
+			String expected = format.format(TimeUnit.DAYS.toMillis(epochDay));
+			assertEquals(expected, dayDate.formatAsString());
+			assertEquals(dayDate, new DayDate(expected));
+		}
+	}
+
+	@Test
+	public void testLenientParsing() throws ParseException {
+		assertEquals(new DayDate("2021-03-01"), new DayDate("2021-02-29"));
+		assertEquals(new DayDate("2021-01-05"), new DayDate("2021-1-5"));
+	}
+
+	@Test
+	public void testTimestamps() {
+		long timestamp = 1590710400000L + TimeUnit.HOURS.toMillis(23);
+		DayDate dayDate = new DayDate(timestamp);
+		assertEquals(1590710400000L, dayDate.getStartOfDayTimestamp());
+		assertEquals("2020-05-29", dayDate.formatAsString());
+		assertEquals("2020-05-30", dayDate.getNextDay().formatAsString());
+		assertEquals("2020-05-19", dayDate.subtractDays(10).formatAsString());
+		assertEquals("1969-12-31", new DayDate(-1).formatAsString());
+		assertTrue(dayDate.isBefore(dayDate.getNextDay()));
+		assertTrue(dayDate.isBeforeOrEquals(timestamp));
+		assertEquals(-1, dayDate.compareTo(dayDate.addDays(1)));
+	}
+
+	@Test
+	public void testJsonFormat() {
+		ExposureDay exposureDay = new ExposureDay(1, new DayDate(1590710400000L), 1590796800000L);
+		String json = Json.toJson(exposureDay);
+		assertTrue(json.contains("\"timestampRepresentation\":1590710400000"));
+
+		String oldJson = "{\"id\":1,\"exposedDate\":{\"timestampRepresentation\":1590710400000},\"reportDate\":1590796800000}";
+		assertEquals(new DayDate(1590710400000L), Json.fromJson(oldJson, ExposureDay.class).getExposedDate());
+	}
+
+}
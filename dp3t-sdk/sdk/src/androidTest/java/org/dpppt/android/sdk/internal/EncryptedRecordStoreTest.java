@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal;
+
+import android.content.Context;
+import android.util.SparseArray;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.dpppt.android.sdk.internal.storage.EncryptedRecordStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class EncryptedRecordStoreTest {
+
+	private static final String STORE_NAME = "test_records";
+	private static final int RECORD_SIZE = 16;
+
+	private Context context;
+	private EncryptedRecordStore recordStore;
+
+	@Before
+	public void setup() {
+		context = InstrumentationRegistry.getInstrumentation().getContext();
+		recordStore = new EncryptedRecordStore(context, STORE_NAME, RECORD_SIZE);
+		recordStore.clear();
+	}
+
+	@After
+	public void tearDown() {
+		recordStore.clear();
+	}
+
+	@Test
+	public void testAppendUpdateDelete() {
+		int first = recordStore.append(bytes("first"));
+		int second = recordStore.append(bytes("second"));
+		recordStore.update(first, bytes("updated"));
+		recordStore.delete(second);
+		assertEquals(0, first);
+
+		SparseArray<byte[]> records = readAll(new EncryptedRecordStore(context, STORE_NAME, RECORD_SIZE));
+		assertEquals(1, records.size());
+		assertArrayEquals(bytes("updated"), records.get(first));
+
+		// the free record id is reused
+		assertEquals(second, recordStore.append(bytes("third")));
+	}
+
+	@Test
+	public void testUpdateWritesNewCopyAndFreesOldSlot() {
+		for (int i = 0; i < 10; i++) {
+			recordStore.append(bytes("record " + i));
+		}
+		long size = recordStore.getSize();
+		// the file has an 8 byte header followed by the slots
+		long slotSize = (size - 8) / 10;
+		long bytesWritten = recordStore.getBytesWritten();
+		recordStore.update(5, bytes("changed"));
+		// the new copy and the cleared old copy
+		assertEquals(2 * slotSize, recordStore.getBytesWritten() - bytesWritten);
+		assertEquals(size + slotSize, recordStore.getSize());
+
+		// the freed slot is used by the next update
+		recordStore.update(5, bytes("changed again"));
+		assertEquals(size + slotSize, recordStore.getSize());
+	}
+
+	@Test
+	public void testInterruptedUpdateKeepsOldCopy() throws Exception {
+		recordStore.append(bytes("first"));
+		File file = new File(new File(context.getNoBackupFilesDir(), "dp3t_records"), STORE_NAME);
+		byte[] oldSlot = readFile(file);
+		recordStore.update(0, bytes("second"));
+		byte[] bothSlots = readFile(file);
+
+		// crashed after the new copy was written, before the old copy was cleared
+		System.arraycopy(oldSlot, 0, bothSlots, 0, oldSlot.length);
+		writeFile(file, bothSlots);
+		SparseArray<byte[]> records = readAll(new EncryptedRecordStore(context, STORE_NAME, RECORD_SIZE));
+		assertEquals(1, records.size());
+		assertArrayEquals(bytes("second"), records.get(0));
+
+		// crashed while the new copy was written
+		bothSlots[bothSlots.length - 20] ^= 0xff;
+		System.arraycopy(oldSlot, 0, bothSlots, 0, oldSlot.length);
+		writeFile(file, bothSlots);
+		records = readAll(new EncryptedRecordStore(context, STORE_NAME, RECORD_SIZE));
+		assertEquals(1, records.size());
+		assertArrayEquals(bytes("first"), records.get(0));
+	}
+
+	@Test
+	public void testTamperedRecordIsDropped() throws Exception {
+		recordStore.append(bytes("first"));
+		recordStore.append(bytes("second"));
+
+		File file = new File(new File(context.getNoBackupFilesDir(), "dp3t_records"), STORE_NAME);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(raf.length() - 20);
+			int value = raf.read();
+			raf.seek(raf.length() - 20);
+			raf.write(value ^ 0xff);
+		}
+
+		SparseArray<byte[]> records = readAll(new EncryptedRecordStore(context, STORE_NAME, RECORD_SIZE));
+		assertEquals(1, records.size());
+		assertArrayEquals(bytes("first"), records.get(0));
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			byte[] bytes = new byte[(int) raf.length()];
+			raf.readFully(bytes);
+			return bytes;
+		}
+	}
+
+	private static void writeFile(File file, byte[] bytes) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			raf.write(bytes);
+		}
+	}
+
+	private SparseArray<byte[]> readAll(EncryptedRecordStore store) {
+		SparseArray<byte[]> records = new SparseArray<>();
+		store.readAll(records::put);
+		return records;
+	}
+
+	private static byte[] bytes(String string) {
+		return string.getBytes(StandardCharsets.UTF_8);
+	}
+
+}
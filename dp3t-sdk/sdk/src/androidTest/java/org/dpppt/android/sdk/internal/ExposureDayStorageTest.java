@@ -14,6 +14,7 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 
 import java.util.Arrays;
+import java.util.List;
 
 import org.dpppt.android.sdk.DP3T;
 import org.dpppt.android.sdk.internal.storage.ExposureDayStorage;
@@ -25,6 +26,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 @RunWith(AndroidJUnit4.class)
 public class ExposureDayStorageTest {
@@ -98,6 +101,26 @@ public class ExposureDayStorageTest {
 		assertEquals(1, eds.getExposureDays().size());
 	}
 
+	@Test
+	public void testSnapshotIsWrittenThrough() {
+		ExposureDayStorage eds = ExposureDayStorage.getInstance(context);
+		eds.clear();
+		eds.addExposureDays(context, Arrays.asList(new ExposureDay(-1, new DayDate(), System.currentTimeMillis())));
+		List<ExposureDay> snapshot = eds.getExposureDays();
+		assertSame(snapshot, eds.getExposureDays());
+
+		eds.addExposureDays(context, Arrays.asList(new ExposureDay(-1, new DayDate().subtractDays(1), System.currentTimeMillis())));
+		assertNotSame(snapshot, eds.getExposureDays());
+		assertEquals(2, eds.getExposureDays().size());
+
+		// modifying a returned entry does not change the stored exposure days
+		eds.getExposureDays().get(0).setDeleted(true);
+		eds.resetExposureDays();
+		assertEquals(0, eds.getExposureDays().size());
+		eds.clear();
+		assertEquals(0, eds.getExposureDays().size());
+	}
+
 	@Test
 	public void testKeepTestsFor14DaysAfterReport() {
 		ExposureDayStorage eds = ExposureDayStorage.getInstance(context);
@@ -113,6 +136,23 @@ public class ExposureDayStorageTest {
 	}
 
 
+	@Test
+	public void testExpiredDaysAreRemovedByReportDate() {
+		ExposureDayStorage eds = ExposureDayStorage.getInstance(context);
+		eds.clear();
+		// a recent exposed date that was reported long ago
+		eds.addExposureDays(context, Arrays.asList(new ExposureDay(-1, new DayDate().subtractDays(2),
+				System.currentTimeMillis() - 15 * 24 * 60 * 60 * 1000L)));
+		// adding expires the first day, although its exposed date is after the exposed date of this one
+		eds.addExposureDays(context,
+				Arrays.asList(new ExposureDay(-1, new DayDate().subtractDays(10), System.currentTimeMillis())));
+		// the expired day was removed, so it can be reported again
+		eds.addExposureDays(context,
+				Arrays.asList(new ExposureDay(-1, new DayDate().subtractDays(2), System.currentTimeMillis())));
+		assertEquals(2, eds.getExposureDays().size());
+		eds.clear();
+	}
+
 	@Test
 	public void testKeepTestsFor10DaysAfterReport() {
 		ExposureDayStorage eds = ExposureDayStorage.getInstance(context);
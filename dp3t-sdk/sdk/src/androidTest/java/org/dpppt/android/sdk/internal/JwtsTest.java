@@ -10,19 +10,29 @@
 
 package org.dpppt.android.sdk.internal;
 
+import android.util.Base64;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
+import java.security.Signature;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Date;
 
 import org.dpppt.android.sdk.backend.SignatureException;
 import org.dpppt.android.sdk.internal.util.Base64Util;
+import org.dpppt.android.sdk.util.JwsVerifier;
 import org.dpppt.android.sdk.util.SignatureUtil;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+
 @RunWith(AndroidJUnit4.class)
 public class JwtsTest {
 
@@ -59,4 +69,115 @@ public class JwtsTest {
 		Assert.fail("should have thrown a SignatureException");
 	}
 
+	@Test
+	public void builtInVerifierReportsExpirationLikeJjwt() throws NoSuchAlgorithmException, InvalidKeySpecException {
+		String jws = "eyJhbGciOiJFUzI1NiJ9.eyJjb250ZW50LWhhc2giOiJsTzd3TDBkOFl5MFBSaU" +
+				"w5NGhUa2txMkRXNUxXVjlPNi9zRWNZVDJHZ2t3PSIsImhhc2gtYWxnIjoic2hhLTI1Ni" +
+				"IsImlzcyI6ImRwM3QiLCJpYXQiOjE1ODgwODk2MDAsImV4cCI6MTU4OTkwNDAwMCwiYm" +
+				"F0Y2gtcmVsZWFzZS10aW1lIjoiMTU4ODA4OTYwMDAwMCJ9.1uiVGBOWqD8jLKm0_EOmN" +
+				"MMgHr4FQOsD1ci4iWR1QMitg_MPgtMiLY7i9nT0hM29IxLD75bls5M65YmSjODpgQ";
+		String pubkey64 = "LS0tLS1CRUdJTiBQVUJMSUMgS0VZLS0tLS0KTUZrd0V3WUhLb1pJemowQ0" +
+				"FRWUlLb1pJemowREFRY0RRZ0FFdXZQelFqN0w0MkxldXJhRGIrSEtPTnAvbm1mcQppbG" +
+				"g2YXRnZ1BBeklJcEttTmlQbG4vNWFYK0VZM1VEQldVK1hpN09QbTAxakUxWUE1bHpYY3" +
+				"U1N1hnPT0KLS0tLS1FTkQgUFVCTElDIEtFWS0tLS0t";
+		PublicKey publicKey = SignatureUtil.getPublicKeyFromBase64(pubkey64);
+		String expectedMessage = "JWT expired at 2020-05-19T16:00:00Z. Current time: ";
+		try {
+			new JwsVerifier(publicKey, JwsVerifier.Engine.JJWT).getVerifiedContentHash(jws);
+			Assert.fail("should have thrown a SignatureException");
+		} catch (SignatureException e) {
+			Assert.assertTrue(e.getMessage().startsWith(expectedMessage));
+		}
+		try {
+			new JwsVerifier(publicKey, JwsVerifier.Engine.BUILT_IN).getVerifiedContentHash(jws);
+			Assert.fail("should have thrown a SignatureException");
+		} catch (SignatureException e) {
+			Assert.assertTrue(e.getMessage().startsWith(expectedMessage));
+		}
+	}
+
+	@Test
+	public void builtInVerifierRejectsInvalidSignature() throws NoSuchAlgorithmException, InvalidKeySpecException {
+		String jws = "eyJhbGciOiJFUzI1NiJ9.eyJjb250ZW50LWhhc2giOiJsTzd3TDBkOFl5MFBSaU" +
+				"w5NGhUa2txMkRXNUxXVjlPNi9zRWNZVDJHZ2t3PSIsImhhc2gtYWxnIjoic2hhLTI1Ni" +
+				"IsImlzcyI6ImRwM3QiLCJpYXQiOjE1ODgwODk2MDAsImV4cCI6MTU4OTkwNDAwMCwiYm" +
+				"F0Y2gtcmVsZWFzZS10aW1lIjoiMTU4ODA4OTYwMDAwMCJ9.1uiVGBOWqD8jLKm0_EOmN" +
+				"MMgHr4FQOsD1ci4iWR1QMitg_MPgtbuggedbuggedbuggedbuggedbuggedbugged";
+		String pubkey64 = "LS0tLS1CRUdJTiBQVUJMSUMgS0VZLS0tLS0KTUZrd0V3WUhLb1pJemowQ0" +
+				"FRWUlLb1pJemowREFRY0RRZ0FFdXZQelFqN0w0MkxldXJhRGIrSEtPTnAvbm1mcQppbG" +
+				"g2YXRnZ1BBeklJcEttTmlQbG4vNWFYK0VZM1VEQldVK1hpN09QbTAxakUxWUE1bHpYY3" +
+				"U1N1hnPT0KLS0tLS1FTkQgUFVCTElDIEtFWS0tLS0t";
+		PublicKey publicKey = SignatureUtil.getPublicKeyFromBase64(pubkey64);
+		try {
+			new JwsVerifier(publicKey, JwsVerifier.Engine.BUILT_IN).getVerifiedContentHash(jws);
+			Assert.fail("should have thrown a SignatureException");
+		} catch (SignatureException e) {
+			Assert.assertEquals("JWT signature does not match locally computed signature. JWT validity cannot be asserted and " +
+					"should not be trusted.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void builtInVerifierAcceptsJjwtSignature() throws SignatureException {
+		KeyPair keyPair = Keys.keyPairFor(SignatureAlgorithm.ES256);
+		String hash64 = "lO7wL0d8Yy0PRiL94hTkkq2DW5LWV9O6/sEcYT2Ggkw=";
+		String jws = Jwts.builder()
+				.claim(SignatureUtil.JWS_CLAIM_CONTENT_HASH, hash64)
+				.setExpiration(new Date(System.currentTimeMillis() + 60 * 60 * 1000L))
+				.signWith(keyPair.getPrivate())
+				.compact();
+		byte[] contentHash = new JwsVerifier(keyPair.getPublic(), JwsVerifier.Engine.BUILT_IN).getVerifiedContentHash(jws);
+		Assert.assertArrayEquals(Base64Util.fromBase64(hash64), contentHash);
+	}
+
+	@Test
+	public void builtInVerifierRejectsOtherAlgorithms() throws Exception {
+		KeyPair keyPair = Keys.keyPairFor(SignatureAlgorithm.ES256);
+		JwsVerifier verifier = new JwsVerifier(keyPair.getPublic(), JwsVerifier.Engine.BUILT_IN);
+		String hash64 = "lO7wL0d8Yy0PRiL94hTkkq2DW5LWV9O6/sEcYT2Ggkw=";
+
+		// the signature is valid for the key, so a token with the expected algorithm is accepted
+		Assert.assertArrayEquals(Base64Util.fromBase64(hash64),
+				verifier.getVerifiedContentHash(signEs256("{\"alg\":\"ES256\"}", hash64, keyPair)));
+
+		// and the same valid signature under another algorithm is rejected because of the algorithm alone
+		try {
+			verifier.getVerifiedContentHash(signEs256("{\"alg\":\"ES384\"}", hash64, keyPair));
+			Assert.fail("should have thrown a SignatureException");
+		} catch (SignatureException e) {
+			Assert.assertEquals("Unsupported JWS algorithm ES384", e.getMessage());
+		}
+	}
+
+	/**
+	 * Signs the header and a content hash claim with ES256, whatever algorithm the header names.
+	 */
+	private static String signEs256(String header, String hash64, KeyPair keyPair) throws Exception {
+		String claims = "{\"" + SignatureUtil.JWS_CLAIM_CONTENT_HASH + "\":\"" + hash64 + "\"}";
+		String signingInput = base64Url(header.getBytes(StandardCharsets.UTF_8)) + "." +
+				base64Url(claims.getBytes(StandardCharsets.UTF_8));
+		Signature signature = Signature.getInstance("SHA256withECDSA");
+		signature.initSign(keyPair.getPrivate());
+		signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+		byte[] der = signature.sign();
+
+		// the ASN.1 sequence of R and S to the concatenated R and S values of a JWS
+		byte[] concatenated = new byte[64];
+		int rLength = der[3];
+		int sLength = der[5 + rLength];
+		copyInteger(der, 4, rLength, concatenated, 0);
+		copyInteger(der, 6 + rLength, sLength, concatenated, 32);
+		return signingInput + "." + base64Url(concatenated);
+	}
+
+	private static void copyInteger(byte[] der, int offset, int length, byte[] concatenated, int concatenatedOffset) {
+		int padding = Math.max(0, length - 32);
+		int copyLength = length - padding;
+		System.arraycopy(der, offset + padding, concatenated, concatenatedOffset + 32 - copyLength, copyLength);
+	}
+
+	private static String base64Url(byte[] bytes) {
+		return Base64.encodeToString(bytes, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+	}
+
 }
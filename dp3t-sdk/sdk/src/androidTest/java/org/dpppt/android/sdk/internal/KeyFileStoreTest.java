@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal;
+
+import android.content.Context;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.dpppt.android.sdk.internal.storage.KeyFileStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class KeyFileStoreTest {
+
+	private KeyFileStore keyFileStore;
+
+	@Before
+	public void setup() {
+		Context context = InstrumentationRegistry.getInstrumentation().getContext();
+		keyFileStore = KeyFileStore.getInstance(context);
+		keyFileStore.clear();
+	}
+
+	@After
+	public void tearDown() {
+		keyFileStore.setQuota(KeyFileStore.DEFAULT_QUOTA);
+		keyFileStore.clear();
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyWrittenFilesAboveQuota() throws IOException {
+		File oldest = writeFile(new File(keyFileStore.getDirectory(), "keyfile_1.part"), 1000, 3000);
+		File older = writeFile(new File(keyFileStore.getDirectory(), "keyfile_2.part"), 1000, 2000);
+		File newest = writeFile(new File(keyFileStore.getDirectory(), "keyfile_3.part"), 1000, 1000);
+		long evictionCount = keyFileStore.getEvictionCount();
+
+		keyFileStore.setQuota(2500);
+		keyFileStore.cleanup(file -> false, null);
+
+		assertFalse(oldest.exists());
+		assertTrue(older.exists());
+		assertTrue(newest.exists());
+		assertEquals(2000, keyFileStore.getSize());
+		assertEquals(evictionCount + 1, keyFileStore.getEvictionCount());
+	}
+
+	@Test
+	public void testPendingBundlesAreNotEvicted() throws IOException {
+		File oldestBundle = writeFile(keyFileStore.getKeyFile("keyfile_1"), 1000, 3000);
+		File partFile = writeFile(new File(keyFileStore.getDirectory(), "keyfile_2.part"), 1000, 2000);
+		File newestBundle = writeFile(keyFileStore.getKeyFile("keyfile_3"), 1000, 1000);
+
+		keyFileStore.setQuota(1500);
+		keyFileStore.cleanup(file -> false, null);
+		assertTrue(oldestBundle.exists());
+		assertFalse(partFile.exists());
+		assertTrue(newestBundle.exists());
+
+		keyFileStore.ensureSpace(500, null);
+		assertEquals(2, keyFileStore.getKeyFiles().size());
+	}
+
+	@Test
+	public void testCleanupRemovesObsoletePartFiles() throws IOException {
+		File obsolete = writeFile(new File(keyFileStore.getDirectory(), "keyfile_1.part"), 100, 1000);
+		File current = writeFile(new File(keyFileStore.getDirectory(), "keyfile_2.part"), 100, 1000);
+		File keyFile = writeFile(keyFileStore.getKeyFile("keyfile_1"), 100, 1000);
+
+		keyFileStore.cleanup(file -> !file.equals(current), current::equals);
+
+		assertFalse(obsolete.exists());
+		assertTrue(current.exists());
+		assertTrue(keyFile.exists());
+		List<File> keyFiles = keyFileStore.getKeyFiles();
+		assertEquals(1, keyFiles.size());
+		assertEquals(keyFile, keyFiles.get(0));
+	}
+
+	@Test
+	public void testEnsureSpaceKeepsFilesInUse() throws IOException {
+		File partFile = writeFile(new File(keyFileStore.getDirectory(), "keyfile_1.part"), 1000, 2000);
+		File obsoletePartFile = writeFile(new File(keyFileStore.getDirectory(), "keyfile_2.part"), 1000, 1000);
+
+		keyFileStore.setQuota(1500);
+		keyFileStore.ensureSpace(500, partFile::equals);
+
+		assertTrue(partFile.exists());
+		assertFalse(obsoletePartFile.exists());
+	}
+
+	@Test
+	public void testCleanupKeepsFilesInUse() throws IOException {
+		File partFile = writeFile(new File(keyFileStore.getDirectory(), "keyfile_1.part"), 1000, 2000);
+		File validatorFile = writeFile(new File(keyFileStore.getDirectory(), "keyfile_1.part.validator"), 10, 2000);
+
+		keyFileStore.setQuota(500);
+		keyFileStore.cleanup(file -> false, file -> file.equals(partFile) || file.equals(validatorFile));
+
+		assertTrue(partFile.exists());
+		assertTrue(validatorFile.exists());
+	}
+
+	private File writeFile(File file, int size, long age) throws IOException {
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			fos.write(new byte[size]);
+		}
+		file.setLastModified(System.currentTimeMillis() - age);
+		return file;
+	}
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal;
+
+import android.content.Context;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.android.gms.nearby.exposurenotification.ExposureWindow;
+import com.google.android.gms.nearby.exposurenotification.Infectiousness;
+import com.google.android.gms.nearby.exposurenotification.ScanInstance;
+
+import org.dpppt.android.sdk.RiskScorer;
+import org.dpppt.android.sdk.internal.nearby.AttenuationHistogram;
+import org.dpppt.android.sdk.internal.nearby.AttenuationRiskScorer;
+import org.dpppt.android.sdk.internal.nearby.ExposureWindowMatchingWorker;
+import org.dpppt.android.sdk.internal.nearby.MatchingParameters;
+import org.dpppt.android.sdk.internal.storage.MatchingStateStore;
+import org.dpppt.android.sdk.models.DayDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class MatchingStateStoreTest {
+
+	private static final MatchingParameters SCORER_PARAMETERS = new MatchingParameters(55, 63, 1.0f, 0.5f, 15, 10);
+	private static final RiskScorer SCORER = new AttenuationRiskScorer(SCORER_PARAMETERS);
+
+	private MatchingStateStore matchingStateStore;
+	private DayDate yesterday;
+	private long oldestDay;
+
+	@Before
+	public void setup() {
+		Context context = InstrumentationRegistry.getInstrumentation().getContext();
+		matchingStateStore = MatchingStateStore.getInstance(context);
+		matchingStateStore.clear();
+		yesterday = new DayDate(System.currentTimeMillis()).subtractDays(1);
+		oldestDay = TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis()) - 10;
+	}
+
+	@After
+	public void tearDown() {
+		matchingStateStore.clear();
+	}
+
+	@Test
+	public void testOnlyNewWindowsAreAccumulated() {
+		List<ExposureWindow> exposureWindows = new ArrayList<>();
+		exposureWindows.add(createWindow(yesterday, 50, 300));
+		exposureWindows.add(createWindow(yesterday, 60, 120));
+		assertEquals(2, matchingStateStore.addExposureWindows(exposureWindows, SCORER, oldestDay));
+
+		exposureWindows.add(createWindow(yesterday, 70, 60));
+		assertEquals(1, matchingStateStore.addExposureWindows(exposureWindows, SCORER, oldestDay));
+		assertEquals(0, matchingStateStore.addExposureWindows(exposureWindows, SCORER, oldestDay));
+
+		long day = TimeUnit.MILLISECONDS.toDays(yesterday.getStartOfDayTimestamp());
+		assertArrayEquals(new double[] { 300, 120, 60 }, matchingStateStore.getAccumulators().get(day), 0);
+	}
+
+	@Test
+	public void testIdenticalWindowsAreCountedSeparately() {
+		List<ExposureWindow> exposureWindows = Arrays.asList(createWindow(yesterday, 50, 300));
+		assertEquals(1, matchingStateStore.addExposureWindows(exposureWindows, SCORER, oldestDay));
+
+		exposureWindows = Arrays.asList(createWindow(yesterday, 50, 300), createWindow(yesterday, 50, 300));
+		assertEquals(1, matchingStateStore.addExposureWindows(exposureWindows, SCORER, oldestDay));
+
+		long day = TimeUnit.MILLISECONDS.toDays(yesterday.getStartOfDayTimestamp());
+		assertArrayEquals(new double[] { 600, 0, 0 }, matchingStateStore.getAccumulators().get(day), 0);
+	}
+
+	@Test
+	public void testChangedThresholdsRebuildAccumulators() {
+		List<ExposureWindow> exposureWindows = Arrays.asList(createWindow(yesterday, 58, 300));
+		matchingStateStore.addExposureWindows(exposureWindows, SCORER, oldestDay);
+
+		RiskScorer changedScorer = new AttenuationRiskScorer(new MatchingParameters(60, 63, 1.0f, 0.5f, 15, 10));
+		assertEquals(1, matchingStateStore.addExposureWindows(exposureWindows, changedScorer, oldestDay));
+
+		long day = TimeUnit.MILLISECONDS.toDays(yesterday.getStartOfDayTimestamp());
+		assertArrayEquals(new double[] { 300, 0, 0 }, matchingStateStore.getAccumulators().get(day), 0);
+	}
+
+	@Test
+	public void testCustomRiskScorer() {
+		RiskScorer infectiousnessScorer = new RiskScorer() {
+			@Override
+			public String getAccumulatorKey() {
+				return "infectiousness";
+			}
+
+			@Override
+			public int getNumberOfAccumulators() {
+				return 1;
+			}
+
+			@Override
+			public void addExposureWindow(ExposureWindow exposureWindow, double[] accumulators, int offset) {
+				double weight = exposureWindow.getInfectiousness() == Infectiousness.HIGH ? 2.0 : 1.0;
+				for (ScanInstance scanInstance : exposureWindow.getScanInstances()) {
+					accumulators[offset] += weight * scanInstance.getSecondsSinceLastScan();
+				}
+			}
+
+			@Override
+			public boolean isExposureLimitReached(double[] accumulators, int offset) {
+				return accumulators[offset] >= 900;
+			}
+		};
+
+		List<ExposureWindow> exposureWindows = new ArrayList<>();
+		exposureWindows.add(createWindow(yesterday, 50, 300));
+		matchingStateStore.addExposureWindows(exposureWindows, SCORER, oldestDay);
+
+		ExposureWindow highInfectiousness = new ExposureWindow.Builder()
+				.setDateMillisSinceEpoch(yesterday.getStartOfDayTimestamp())
+				.setInfectiousness(Infectiousness.HIGH)
+				.setScanInstances(createWindow(yesterday, 70, 300).getScanInstances())
+				.build();
+		exposureWindows.add(highInfectiousness);
+		assertEquals(2, matchingStateStore.addExposureWindows(exposureWindows, infectiousnessScorer, oldestDay));
+
+		long day = TimeUnit.MILLISECONDS.toDays(yesterday.getStartOfDayTimestamp());
+		assertArrayEquals(new double[] { 900 }, matchingStateStore.getAccumulators().get(day), 0);
+		assertEquals(1, ExposureWindowMatchingWorker
+				.evaluateExposureDays(matchingStateStore.getAccumulators(), infectiousnessScorer, oldestDay).size());
+	}
+
+	@Test
+	public void testAttenuationHistograms() {
+		List<ExposureWindow> exposureWindows = new ArrayList<>();
+		exposureWindows.add(createWindow(yesterday, 50, 300));
+		exposureWindows.add(createWindow(yesterday, 58, 600));
+		exposureWindows.add(createWindow(yesterday, 255, 60));
+		matchingStateStore.addExposureWindows(exposureWindows, SCORER, oldestDay);
+		// a changed scorer must not count the windows twice
+		matchingStateStore.addExposureWindows(exposureWindows,
+				new AttenuationRiskScorer(new MatchingParameters(60, 63, 1.0f, 0.5f, 15, 10)), oldestDay);
+
+		long day = TimeUnit.MILLISECONDS.toDays(yesterday.getStartOfDayTimestamp());
+		AttenuationHistogram histogram = matchingStateStore.getAttenuationHistograms().get(day);
+		assertEquals(3, histogram.getNumberOfWindows());
+		assertEquals(900, histogram.getSeconds(0, 60));
+		assertEquals(60, histogram.getSeconds(255, 256));
+
+		AttenuationHistogram decoded = AttenuationHistogram.fromBytes(histogram.toBytes());
+		assertEquals(3, decoded.getNumberOfWindows());
+		assertEquals(960, decoded.getTotalSeconds());
+		assertArrayEquals(new int[] { 300, 600, 60 }, decoded.getAttenuationDurationsInSeconds(SCORER_PARAMETERS));
+
+		// 5 + 10 * 0.5 minutes are below 15, with a higher low threshold 15 minutes count fully
+		assertFalse(decoded.isExposureLimitReached(SCORER_PARAMETERS));
+		assertTrue(decoded.isExposureLimitReached(new MatchingParameters(60, 63, 1.0f, 0.5f, 15, 10)));
+		assertEquals(1, ExposureWindowMatchingWorker.evaluateExposureDays(matchingStateStore.getAttenuationHistograms(),
+				new MatchingParameters(60, 63, 1.0f, 0.5f, 15, 10), oldestDay).size());
+	}
+
+	@Test
+	public void testOldDaysAreDropped() {
+		DayDate oldDate = new DayDate(System.currentTimeMillis()).subtractDays(12);
+		matchingStateStore.addExposureWindows(Arrays.asList(createWindow(oldDate, 50, 300)), SCORER, oldestDay - 5);
+		assertEquals(1, matchingStateStore.getAccumulators().size());
+
+		matchingStateStore.addExposureWindows(new ArrayList<>(), SCORER, oldestDay);
+		assertEquals(0, matchingStateStore.getAccumulators().size());
+	}
+
+	private ExposureWindow createWindow(DayDate date, int attenuation, int seconds) {
+		List<ScanInstance> scanInstances = new ArrayList<>();
+		scanInstances.add(new ScanInstance.Builder()
+				.setMinAttenuationDb(attenuation)
+				.setTypicalAttenuationDb(attenuation)
+				.setSecondsSinceLastScan(seconds)
+				.build());
+		return new ExposureWindow.Builder()
+				.setDateMillisSinceEpoch(date.getStartOfDayTimestamp())
+				.setScanInstances(scanInstances)
+				.build();
+	}
+
+}
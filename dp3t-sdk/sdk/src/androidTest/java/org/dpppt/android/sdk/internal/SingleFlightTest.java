@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class SingleFlightTest {
+
+	@Test
+	public void testAbortedTaskIsNotRepeated() throws Exception {
+		SingleFlight<String> singleFlight = new SingleFlight<>();
+		AtomicInteger executions = new AtomicInteger();
+
+		try {
+			singleFlight.runOrAwaitBlocking(continuation -> {
+				executions.incrementAndGet();
+				throw new CancellationException("aborted by the task");
+			});
+			fail("the abort should reach the caller");
+		} catch (CancellationException e) {
+			assertEquals("aborted by the task", e.getMessage());
+		}
+
+		assertEquals(1, executions.get());
+		assertEquals(1, singleFlight.getRunCount());
+	}
+
+	@Test
+	public void testNextCallRunsAgainAfterAbort() throws Exception {
+		SingleFlight<String> singleFlight = new SingleFlight<>();
+
+		try {
+			singleFlight.runOrAwaitBlocking(continuation -> {
+				throw new CancellationException("aborted by the task");
+			});
+			fail("the abort should reach the caller");
+		} catch (CancellationException e) {
+			// expected
+		}
+
+		assertEquals("synced", singleFlight.runOrAwaitBlocking(continuation -> "synced"));
+		assertEquals(2, singleFlight.getRunCount());
+	}
+
+}
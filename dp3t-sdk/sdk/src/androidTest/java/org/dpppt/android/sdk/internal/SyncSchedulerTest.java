@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal;
+
+import android.content.Context;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SyncSchedulerTest {
+
+	private static final long HOUR = 60 * 60 * 1000L;
+	private static final long SYNC_INTERVAL = 4 * HOUR;
+	private static final long PUBLISH_TIME = 1000 * HOUR;
+
+	private static final int INSTALLATIONS = 10000;
+	private static final int BINS = 16;
+
+	private AppConfigManager appConfigManager;
+
+	@Before
+	public void setup() {
+		Context context = InstrumentationRegistry.getInstrumentation().getContext();
+		appConfigManager = AppConfigManager.getInstance(context);
+	}
+
+	@Test
+	public void testJitterIsStablePerInstallation() {
+		Context context = InstrumentationRegistry.getInstrumentation().getContext();
+
+		float jitterFraction = appConfigManager.getSyncJitterFraction();
+		assertTrue(jitterFraction >= 0 && jitterFraction < 1);
+		assertEquals(jitterFraction, appConfigManager.getSyncJitterFraction(), 0);
+		assertEquals(SyncScheduler.getJitterOffset(context), SyncScheduler.getJitterOffset(context));
+	}
+
+	@Test
+	public void testWithoutJitterAllSyncsHitThePublishTime() {
+		int[] histogram = simulateSyncsAfterPublish(0, 42);
+
+		assertEquals(INSTALLATIONS, histogram[0]);
+	}
+
+	@Test
+	public void testJitterSpreadsSyncsAcrossInterval() {
+		int[] histogram = simulateSyncsAfterPublish(SYNC_INTERVAL, 42);
+
+		int expectedPerBin = INSTALLATIONS / BINS;
+		for (int i = 0; i < BINS; i++) {
+			assertTrue("bin " + i + " has " + histogram[i] + " syncs", Math.abs(histogram[i] - expectedPerBin) < expectedPerBin * 0.2);
+		}
+	}
+
+	@Test
+	public void testServerSpreadWindowLimitsJitter() {
+		int[] histogram = simulateSyncsAfterPublish(SYNC_INTERVAL / 4, 42);
+
+		int syncsInWindow = 0;
+		for (int i = 0; i < BINS / 4; i++) {
+			syncsInWindow += histogram[i];
+		}
+		assertEquals(INSTALLATIONS, syncsInWindow);
+	}
+
+	@Test
+	public void testJitterSpreadsIntervalSyncsWithoutHint() {
+		// all installations synced at the same time, and no hint was announced
+		long lastSyncCallTime = PUBLISH_TIME;
+		long earliestSyncTime = SyncScheduler.computeEarliestSyncTime(lastSyncCallTime, SYNC_INTERVAL, 0, 0);
+		int[] histogram = new int[BINS];
+		for (int i = 0; i < INSTALLATIONS; i++) {
+			long nextSyncTime = SyncScheduler.computeNextSyncTime(lastSyncCallTime, SYNC_INTERVAL, 0, newInstallationJitter(),
+					SYNC_INTERVAL / 4);
+
+			assertTrue(nextSyncTime >= earliestSyncTime && nextSyncTime < earliestSyncTime + SYNC_INTERVAL);
+			histogram[(int) ((nextSyncTime - earliestSyncTime) * BINS / SYNC_INTERVAL)]++;
+		}
+
+		// spread across the whole interval, independent of the spread window for new bundles
+		int expectedPerBin = INSTALLATIONS / BINS;
+		for (int i = 0; i < BINS; i++) {
+			assertTrue("bin " + i + " has " + histogram[i] + " syncs", Math.abs(histogram[i] - expectedPerBin) < expectedPerBin * 0.2);
+		}
+	}
+
+	@Test
+	public void testJitterOffsetIsKeptAcrossInterval() {
+		Context context = InstrumentationRegistry.getInstrumentation().getContext();
+		long syncInterval = SyncScheduler.getSyncInterval(context);
+		long offset = SyncScheduler.computeJitterOffset(appConfigManager.getSyncJitterFraction(), syncInterval, syncInterval);
+		appConfigManager.setNextBundleTime(0);
+
+		// synced just after the offset, so the planned sync lies almost two intervals ahead and must not be shortened to one
+		long lastSyncCallTime = PUBLISH_TIME - PUBLISH_TIME % syncInterval + offset + 1;
+		appConfigManager.setLastSyncCallTime(lastSyncCallTime);
+		long initialDelay = SyncScheduler.getInitialDelay(context, lastSyncCallTime);
+		assertEquals(2 * syncInterval - 1, initialDelay);
+
+		// the sync at the planned time keeps the offset for the next interval
+		long plannedSyncTime = lastSyncCallTime + initialDelay;
+		assertEquals(offset, plannedSyncTime % syncInterval);
+		appConfigManager.setLastSyncCallTime(plannedSyncTime);
+		assertEquals(syncInterval, SyncScheduler.getInitialDelay(context, plannedSyncTime));
+	}
+
+	@Test
+	public void testSpreadWindowIsCappedBySyncInterval() {
+		assertTrue(SyncScheduler.computeJitterOffset(0.99f, 10 * SYNC_INTERVAL, SYNC_INTERVAL) < SYNC_INTERVAL);
+		assertEquals(0, SyncScheduler.computeJitterOffset(0.5f, -1, SYNC_INTERVAL));
+	}
+
+	@Test
+	public void testRetryDelayIsCappedByGracePeriod() {
+		long initialBackoff = 5 * 60 * 1000L;
+		long gracePeriod = 24 * HOUR;
+
+		assertEquals(initialBackoff, SyncScheduler.computeRetryDelay(initialBackoff, 0, gracePeriod));
+		assertEquals(2 * initialBackoff, SyncScheduler.computeRetryDelay(initialBackoff, 1, gracePeriod));
+		// WorkManager caps each backoff at 5 hours
+		assertEquals(5 * HOUR, SyncScheduler.computeRetryDelay(initialBackoff, 6, gracePeriod));
+		assertEquals(5 * HOUR, SyncScheduler.computeRetryDelay(initialBackoff, 8, gracePeriod));
+		// 5 + 10 + 20 + 40 + 80 + 160 min + 4 * 5 h exceed the grace period
+		assertEquals(-1, SyncScheduler.computeRetryDelay(initialBackoff, 9, gracePeriod));
+	}
+
+	/**
+	 * Simulates installations that all received the publish hint for the same bundle in their last sync, and counts their next
+	 * syncs per bin of the sync interval after the publish time.
+	 */
+	private int[] simulateSyncsAfterPublish(long spreadWindow, long seed) {
+		Random random = new Random(seed);
+		int[] histogram = new int[BINS];
+		for (int i = 0; i < INSTALLATIONS; i++) {
+			long lastSyncCallTime = PUBLISH_TIME - SYNC_INTERVAL - (long) (random.nextDouble() * HOUR);
+			long nextSyncTime = SyncScheduler.computeNextSyncTime(lastSyncCallTime, SYNC_INTERVAL, PUBLISH_TIME,
+					newInstallationJitter(), spreadWindow);
+
+			assertTrue(nextSyncTime >= PUBLISH_TIME && nextSyncTime < PUBLISH_TIME + SYNC_INTERVAL);
+			histogram[(int) ((nextSyncTime - PUBLISH_TIME) * BINS / SYNC_INTERVAL)]++;
+		}
+		return histogram;
+	}
+
+	/**
+	 * @return the jitter fraction that the SDK chooses for a new installation
+	 */
+	private float newInstallationJitter() {
+		appConfigManager.resetSyncJitterFraction();
+		return appConfigManager.getSyncJitterFraction();
+	}
+
+}
@@ -19,13 +19,20 @@ import androidx.work.WorkManager;
 import androidx.work.impl.utils.SynchronousExecutor;
 import androidx.work.testing.WorkManagerTestInitHelper;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.android.gms.nearby.exposurenotification.ExposureWindow;
 import com.google.android.gms.nearby.exposurenotification.ScanInstance;
@@ -33,14 +40,18 @@ import com.google.android.gms.nearby.exposurenotification.ScanInstance;
 import org.dpppt.android.sdk.BuildConfig;
 import org.dpppt.android.sdk.DP3T;
 import org.dpppt.android.sdk.InfectionStatus;
+import org.dpppt.android.sdk.SyncHandle;
+import org.dpppt.android.sdk.SyncResult;
 import org.dpppt.android.sdk.TracingStatus;
 import org.dpppt.android.sdk.internal.backend.ProxyConfig;
+import org.dpppt.android.sdk.internal.backend.StatusCodeException;
 import org.dpppt.android.sdk.internal.logger.LogLevel;
 import org.dpppt.android.sdk.internal.logger.Logger;
 import org.dpppt.android.sdk.internal.nearby.ExposureWindowMatchingWorker;
 import org.dpppt.android.sdk.internal.nearby.GaenStateHelper;
 import org.dpppt.android.sdk.internal.nearby.GoogleExposureClient;
 import org.dpppt.android.sdk.internal.nearby.TestGoogleExposureClient;
+import org.dpppt.android.sdk.internal.storage.KeyFileStore;
 import org.dpppt.android.sdk.internal.util.Json;
 import org.dpppt.android.sdk.models.ApplicationInfo;
 import org.dpppt.android.sdk.models.DayDate;
@@ -52,9 +63,13 @@ import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
 
 import static org.dpppt.android.sdk.internal.SyncWorker.KEY_BUNDLE_TAG_HEADER;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(AndroidJUnit4.class)
 public class SyncWorkerTest {
@@ -192,6 +207,143 @@ public class SyncWorkerTest {
 		assertEquals(4, testGoogleExposureClient.getProvideDiagnosisKeysCounter());
 	}
 
+	@Test
+	public void testServerPublishHintPostponesSync() throws Exception {
+		if (!BuildConfig.FLAVOR.equals("production")) {
+			throw new IllegalStateException("Wrong Build Variant. Make sure to run this Test with the production build variant.");
+		}
+		AtomicLong time = new AtomicLong(yesterdayAt8am());
+		DP3T.setSyncSpreadWindow(context, 0);
+
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				return new MockResponse()
+						.setResponseCode(200)
+						.setBody("randomdatabecauseitdoesnotmatter")
+						.addHeader("Cache-Control", "max-age=21600")
+						.addHeader(KEY_BUNDLE_TAG_HEADER, time.get() - 2 * 60 * 60 * 1000l);
+			}
+		});
+
+		//8am
+		new SyncWorker.SyncImpl(context, time.get(), true, true).doSyncBlocking();
+
+		//12pm, sync interval passed, but the backend announced the next bundle for 2pm
+		time.set(time.get() + 4 * 60 * 60 * 1000l);
+		assertEquals(SyncResult.Status.SKIPPED_RATE_LIMIT,
+				new SyncWorker.SyncImpl(context, time.get(), true, true).doSyncBlocking().getStatus());
+
+		//2pm
+		time.set(time.get() + 2 * 60 * 60 * 1000l);
+		new SyncWorker.SyncImpl(context, time.get(), true, true).doSyncBlocking();
+
+		assertEquals(2, testGoogleExposureClient.getProvideDiagnosisKeysCounter());
+		assertEquals(2, server.getRequestCount());
+	}
+
+	@Test
+	public void testSyncReplansNextRun() throws Exception {
+		if (!BuildConfig.FLAVOR.equals("production")) {
+			throw new IllegalStateException("Wrong Build Variant. Make sure to run this Test with the production build variant.");
+		}
+		AtomicLong time = new AtomicLong(yesterdayAt8am());
+		DP3T.setSyncSpreadWindow(context, 0);
+
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				return new MockResponse()
+						.setResponseCode(200)
+						.setBody("randomdatabecauseitdoesnotmatter")
+						.addHeader("Cache-Control", "max-age=21600")
+						.addHeader(KEY_BUNDLE_TAG_HEADER, time.get() - 2 * 60 * 60 * 1000l);
+			}
+		});
+
+		SyncWorker.startSyncWorker(context);
+		WorkInfo plannedWork = WorkManager.getInstance(context).getWorkInfosForUniqueWork(SyncWorker.WORK_NAME).get().get(0);
+
+		// a sync requested by the app replans the worker as well
+		new SyncWorker.SyncImpl(context, time.get()).doSyncBlocking();
+
+		WorkInfo replannedWork = null;
+		for (WorkInfo workInfo : WorkManager.getInstance(context).getWorkInfosForUniqueWork(SyncWorker.WORK_NAME).get()) {
+			if (workInfo.getState() == WorkInfo.State.ENQUEUED) {
+				replannedWork = workInfo;
+			}
+		}
+		assertTrue(replannedWork != null && !replannedWork.getId().equals(plannedWork.getId()));
+		// the next run starts when the announced bundle is published, not one interval after the sync
+		assertEquals(6 * 60 * 60 * 1000l, SyncScheduler.getInitialDelay(context, time.get()));
+	}
+
+	@Test
+	public void testManualSyncIgnoresServerPublishHint() throws Exception {
+		if (!BuildConfig.FLAVOR.equals("production")) {
+			throw new IllegalStateException("Wrong Build Variant. Make sure to run this Test with the production build variant.");
+		}
+		AtomicLong time = new AtomicLong(yesterdayAt8am());
+		DP3T.setSyncSpreadWindow(context, 0);
+
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				return new MockResponse()
+						.setResponseCode(200)
+						.setBody("randomdatabecauseitdoesnotmatter")
+						.addHeader("Cache-Control", "max-age=21600")
+						.addHeader(KEY_BUNDLE_TAG_HEADER, time.get() - 2 * 60 * 60 * 1000l);
+			}
+		});
+
+		//8am
+		new SyncWorker.SyncImpl(context, time.get()).doSyncBlocking();
+
+		//11:59am, the rate limit has no early tolerance
+		time.set(time.get() + 4 * 60 * 60 * 1000l - 60 * 1000l);
+		assertEquals(SyncResult.Status.SKIPPED_RATE_LIMIT, new SyncWorker.SyncImpl(context, time.get()).doSyncBlocking().getStatus());
+
+		//12pm, the backend announced the next bundle for 2pm, but a sync requested by the app only waits for the interval
+		time.set(time.get() + 60 * 1000l);
+		assertEquals(SyncResult.Status.SYNCED, new SyncWorker.SyncImpl(context, time.get()).doSyncBlocking().getStatus());
+
+		assertEquals(2, testGoogleExposureClient.getProvideDiagnosisKeysCounter());
+		assertEquals(2, server.getRequestCount());
+	}
+
+	@Test
+	public void testSubmissionStageProvidesDownloadedKeys() throws Exception {
+		AtomicLong time = new AtomicLong(yesterdayAt8am());
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				return new MockResponse()
+						.setResponseCode(200)
+						.setBody("randomdatabecauseitdoesnotmatter")
+						.addHeader(KEY_BUNDLE_TAG_HEADER, time.get() - 2 * 60 * 60 * 1000l);
+			}
+		});
+
+		SyncResult syncResult = new SyncWorker.SyncImpl(context, time.get(), false).doSyncBlocking();
+		assertEquals(SyncResult.Status.SYNCED, syncResult.getStatus());
+
+		WorkInfo.State state;
+		long deadline = System.currentTimeMillis() + 10 * 1000L;
+		do {
+			if (System.currentTimeMillis() > deadline) {
+				fail("key submission did not finish in time");
+			}
+			Thread.sleep(100);
+			state = WorkManager.getInstance(context).getWorkInfosForUniqueWork(KeySubmissionWorker.WORK_NAME).get().get(0)
+					.getState();
+		} while (!state.isFinished());
+
+		assertEquals(WorkInfo.State.SUCCEEDED, state);
+		assertEquals(1, testGoogleExposureClient.getProvideDiagnosisKeysCounter());
+		assertEquals(false, KeySubmissionWorker.hasPendingKeyFiles(context));
+	}
+
 	@Test
 	public void testSync204() throws Exception {
 		AtomicLong time = new AtomicLong(yesterdayAt8am());
@@ -206,6 +358,157 @@ public class SyncWorkerTest {
 		assertEquals(0, testGoogleExposureClient.getProvideDiagnosisKeysCounter());
 	}
 
+	@Test
+	public void testResumeInterruptedDownload() throws Exception {
+		AtomicLong time = new AtomicLong(yesterdayAt8am());
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			content.append("randomdatabecauseitdoesnotmatter");
+		}
+		String body = content.toString();
+
+		server.setDispatcher(new Dispatcher() {
+			int requestCounter = 0;
+
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				requestCounter++;
+				if (requestCounter == 1) {
+					// the throttling makes sure the prefix reaches the client before the connection is dropped
+					return new MockResponse()
+							.setResponseCode(200)
+							.setBody(body)
+							.throttleBody(64 * 1024, 50, TimeUnit.MILLISECONDS)
+							.addHeader("ETag", "\"bundle\"")
+							.addHeader(KEY_BUNDLE_TAG_HEADER, time.get())
+							.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+				}
+				String range = request.getHeader("Range");
+				if (range == null || !"\"bundle\"".equals(request.getHeader("If-Range"))) {
+					return new MockResponse().setResponseCode(500);
+				}
+				int start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+				return new MockResponse()
+						.setResponseCode(206)
+						.setBody(body.substring(start))
+						.addHeader("ETag", "\"bundle\"")
+						.addHeader("Content-Range", "bytes " + start + "-" + (body.length() - 1) + "/" + body.length())
+						.addHeader(KEY_BUNDLE_TAG_HEADER, time.get());
+			}
+		});
+
+		try {
+			new SyncWorker.SyncImpl(context, time.get()).doSyncBlocking();
+			fail("sync should have failed");
+		} catch (IOException e) {
+			// expected, the connection was dropped
+		}
+		assertEquals(0, testGoogleExposureClient.getProvideDiagnosisKeysCounter());
+
+		File[] partFiles = KeyFileStore.getInstance(context).getDirectory().listFiles((dir, name) -> name.endsWith(".part"));
+		assertEquals(1, partFiles.length);
+		String received = new String(readFile(partFiles[0]));
+		assertTrue(received.length() > 0);
+		assertTrue(received.length() < body.length());
+		assertTrue(body.startsWith(received));
+
+		new SyncWorker.SyncImpl(context, time.get()).doSyncBlocking();
+
+		assertEquals(2, server.getRequestCount());
+		server.takeRequest();
+		RecordedRequest resumeRequest = server.takeRequest();
+		assertEquals("bytes=" + received.length() + "-", resumeRequest.getHeader("Range"));
+		assertEquals("\"bundle\"", resumeRequest.getHeader("If-Range"));
+		assertFalse(partFiles[0].exists());
+		assertEquals(1, testGoogleExposureClient.getProvideDiagnosisKeysCounter());
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		try (InputStream input = new FileInputStream(file)) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) >= 0) {
+				output.write(buffer, 0, read);
+			}
+			return output.toByteArray();
+		}
+	}
+
+	@Test
+	public void testConcurrentSyncsShareOutcome() throws Exception {
+		AtomicLong time = new AtomicLong(yesterdayAt8am());
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				return new MockResponse()
+						.setResponseCode(503)
+						.setHeadersDelay(1, TimeUnit.SECONDS);
+			}
+		});
+
+		long contendedBefore = SyncWorker.getSyncCoordinator().getContendedCount();
+		AtomicReference<Exception> concurrentException = new AtomicReference<>();
+		Thread concurrentSync = new Thread(() -> {
+			try {
+				new SyncWorker.SyncImpl(context, time.get()).doSyncBlocking();
+			} catch (Exception e) {
+				concurrentException.set(e);
+			}
+		});
+		concurrentSync.start();
+		Thread.sleep(200);
+
+		try {
+			new SyncWorker.SyncImpl(context, time.get()).doSyncBlocking();
+			fail("sync should have failed");
+		} catch (StatusCodeException e) {
+			// expected
+		}
+		concurrentSync.join();
+
+		assertTrue(concurrentException.get() instanceof StatusCodeException);
+		assertEquals(contendedBefore + 1, SyncWorker.getSyncCoordinator().getContendedCount());
+		// the concurrent call queued a follow-up run, it must not leak into the next test
+		SyncWorker.getSyncCoordinator().awaitIdleBlocking();
+	}
+
+	@Test
+	public void testCancelledCallerDoesNotCancelSharedSync() throws Exception {
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				return new MockResponse()
+						.setResponseCode(503)
+						.setHeadersDelay(1, TimeUnit.SECONDS);
+			}
+		});
+
+		AtomicBoolean callbackCalled = new AtomicBoolean();
+		SyncHandle handle = DP3T.syncAsync(context, result -> callbackCalled.set(true));
+		Thread.sleep(200);
+
+		AtomicReference<Exception> joinedException = new AtomicReference<>();
+		Thread joinedSync = new Thread(() -> {
+			try {
+				new SyncWorker.SyncImpl(context, yesterdayAt8am()).doSyncBlocking();
+			} catch (Exception e) {
+				joinedException.set(e);
+			}
+		});
+		joinedSync.start();
+		Thread.sleep(200);
+
+		handle.cancel();
+		joinedSync.join();
+
+		// the joined caller gets the outcome of the shared sync, not the cancellation of the caller that started it
+		assertTrue(joinedException.get() instanceof StatusCodeException);
+		assertTrue(handle.isCancelled());
+		SyncWorker.getSyncCoordinator().awaitIdleBlocking();
+		assertFalse(callbackCalled.get());
+	}
+
 	@Test
 	public void testExposure() throws ExecutionException, InterruptedException {
 		TestGoogleExposureClient.ExposureTestParameters params = new TestGoogleExposureClient.ExposureTestParameters();
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal;
+
+import android.content.Context;
+import android.os.SystemClock;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TrustedTimeTest {
+
+	@Test
+	public void testEstimateFollowsServerTime() {
+		Context context = InstrumentationRegistry.getInstrumentation().getContext();
+		TrustedTime trustedTime = TrustedTime.getInstance(context);
+		trustedTime.clearEstimate();
+
+		long offset = 60 * 60 * 1000L;
+		trustedTime.onServerTime(System.currentTimeMillis() + offset, SystemClock.elapsedRealtime());
+		assertTrue(trustedTime.isDeviceClockOff());
+		assertEquals(offset, trustedTime.getDeviceClockOffset(), 2000);
+		assertEquals(System.currentTimeMillis() + offset, trustedTime.currentTimeMillis(), 2000);
+
+		// lower samples pull the estimate down gradually
+		for (int i = 0; i < 100; i++) {
+			trustedTime.onServerTime(System.currentTimeMillis(), SystemClock.elapsedRealtime());
+		}
+		assertFalse(trustedTime.isDeviceClockOff());
+		assertEquals(0, trustedTime.getDeviceClockOffset(), 2000);
+	}
+
+	@Test
+	public void testHigherSamplesReplaceEstimate() {
+		assertEquals(1000, TrustedTime.computeEstimate(500, 1000));
+		assertEquals(875, TrustedTime.computeEstimate(1000, 500));
+		// a single high sample can not move the estimate arbitrarily far
+		assertEquals(TrustedTime.MAX_HIGHER_SAMPLE_STEP, TrustedTime.computeEstimate(0, 60 * 60 * 1000L));
+	}
+
+	@Test
+	public void testEstimateIsOnlyRestoredInTheSameBoot() {
+		long deviceBootTime = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+		assertTrue(TrustedTime.isSameBoot(3, deviceBootTime, 3, deviceBootTime + 60 * 1000L));
+		assertFalse(TrustedTime.isSameBoot(2, deviceBootTime, 3, deviceBootTime));
+
+		// without a boot count, as on API 23, the boot time of the device clock has to match
+		assertTrue(TrustedTime.isSameBoot(-1, deviceBootTime, -1, deviceBootTime + 1000));
+		assertFalse(TrustedTime.isSameBoot(-1, deviceBootTime, -1, deviceBootTime + 5 * 60 * 1000L));
+		assertFalse(TrustedTime.isSameBoot(-1, 0, -1, deviceBootTime));
+	}
+
+}
@@ -12,19 +12,27 @@ package org.dpppt.android.sdk.internal.backend;
 import android.content.Context;
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.KeyPair;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.dpppt.android.sdk.backend.SignatureException;
 import org.dpppt.android.sdk.internal.logger.LogLevel;
 import org.dpppt.android.sdk.internal.logger.Logger;
 import org.dpppt.android.sdk.internal.util.Base64Util;
+import org.dpppt.android.sdk.util.JwsVerifier;
 import org.dpppt.android.sdk.util.SignatureUtil;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
@@ -36,10 +44,20 @@ import okhttp3.mockwebserver.RecordedRequest;
 
 import static org.dpppt.android.sdk.util.SignatureUtil.JWS_CLAIM_CONTENT_HASH;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+@RunWith(Parameterized.class)
 public class SignatureVerificationInterceptorTest {
 
+	@Parameterized.Parameters(name = "{0}")
+	public static Collection<JwsVerifier.Engine> engines() {
+		return Arrays.asList(JwsVerifier.Engine.values());
+	}
+
+	@Parameterized.Parameter
+	public JwsVerifier.Engine engine;
+
 	Context context;
 	MockWebServer server;
 	BackendBucketRepository bucketRepository;
@@ -56,7 +74,8 @@ public class SignatureVerificationInterceptorTest {
 		server = new MockWebServer();
 		keyPair = Keys.keyPairFor(SignatureAlgorithm.ES256);
 
-		bucketRepository = new BackendBucketRepository(context, server.url("/bucket/").toString(), keyPair.getPublic());
+		bucketRepository = new BackendBucketRepository(context, server.url("/bucket/").toString(),
+				new JwsVerifier(keyPair.getPublic(), engine));
 	}
 
 	private String getJwtForContent(String content) {
@@ -133,4 +152,38 @@ public class SignatureVerificationInterceptorTest {
 		}
 	}
 
+	@Test
+	public void testBodyIsStreamedToConsumer() throws IOException, StatusCodeException {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 8192; i++) {
+			content.append("randomdatabecauseitdoesnotmatter");
+		}
+		String responseString = content.toString();
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				return new MockResponse()
+						.setResponseCode(200)
+						.setBody(responseString)
+						.throttleBody(16 * 1024, 250, TimeUnit.MILLISECONDS)
+						.addHeader(SignatureUtil.HTTP_HEADER_JWS, getJwtForContent(responseString));
+			}
+		});
+
+		// sending the whole body takes about four seconds, the first bytes must reach the consumer long before
+		long start = System.currentTimeMillis();
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		try (InputStream stream = bucketRepository.getGaenExposeesBlocking(null, null).body().byteStream()) {
+			byte[] buffer = new byte[1024];
+			int read = stream.read(buffer);
+			assertTrue(read > 0);
+			assertTrue(System.currentTimeMillis() - start < 2000);
+			while (read >= 0) {
+				received.write(buffer, 0, read);
+				read = stream.read(buffer);
+			}
+		}
+		assertEquals(responseString, received.toString());
+	}
+
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal.benchmark;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.security.crypto.MasterKeys;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.aead.AeadConfig;
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.integration.android.AndroidKeysetManager;
+
+import org.dpppt.android.sdk.internal.storage.CryptoProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares getting the master key and loading an AEAD keyset through the Android Keystore, as every encrypted store used to
+ * do when it was opened, with getting the primitive from the warm {@link CryptoProvider}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CryptoProviderBenchmark {
+
+	private static final String TAG = "CryptoProviderBenchmark";
+
+	private static final String KEYSET_PREF_FILE = "benchmark_keyset";
+	private static final String KEYSET_NAME = "benchmark_key";
+
+	@Rule
+	public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+	private Context context;
+
+	@Before
+	public void setup() {
+		context = InstrumentationRegistry.getInstrumentation().getContext();
+	}
+
+	@Test
+	public void coldInit() throws Exception {
+		AeadConfig.register();
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			String masterKeyAlias = MasterKeys.getOrCreate(MasterKeys.AES256_GCM_SPEC);
+			new AndroidKeysetManager.Builder()
+					.withKeyTemplate(AeadKeyTemplates.AES256_GCM)
+					.withSharedPref(context, KEYSET_NAME, KEYSET_PREF_FILE)
+					.withMasterKeyUri("android-keystore://" + masterKeyAlias)
+					.build()
+					.getKeysetHandle()
+					.getPrimitive(Aead.class);
+		}
+		context.getSharedPreferences(KEYSET_PREF_FILE, Context.MODE_PRIVATE).edit().clear().commit();
+	}
+
+	@Test
+	public void warmAccess() {
+		CryptoProvider cryptoProvider = CryptoProvider.getInstance(context);
+		cryptoProvider.warmUp();
+		Log.i(TAG, "cold init took " + cryptoProvider.getColdInitDuration() + "ms, callers waited " +
+				cryptoProvider.getWaitDuration() + "ms");
+
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			cryptoProvider.getAead();
+		}
+	}
+
+}
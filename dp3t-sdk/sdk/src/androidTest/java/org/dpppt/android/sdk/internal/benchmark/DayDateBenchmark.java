@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal.benchmark;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.dpppt.android.sdk.internal.util.Json;
+import org.dpppt.android.sdk.models.DayDate;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class DayDateBenchmark {
+
+	private static final long TIMESTAMP = 1590710400000L;
+	private static final int NUMBER_OF_DAYS = 1000;
+
+	@Rule
+	public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+	@Test
+	public void construct() {
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			new DayDate(TIMESTAMP).addDays(1).getNextDay();
+		}
+	}
+
+	@Test
+	public void sort() {
+		List<DayDate> days = new ArrayList<>(NUMBER_OF_DAYS);
+		for (int i = 0; i < NUMBER_OF_DAYS; i++) {
+			days.add(new DayDate(TIMESTAMP).subtractDays((i * 7919) % NUMBER_OF_DAYS));
+		}
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			state.pauseTiming();
+			List<DayDate> shuffled = new ArrayList<>(days);
+			state.resumeTiming();
+			Collections.sort(shuffled);
+		}
+	}
+
+	@Test
+	public void format() {
+		DayDate dayDate = new DayDate(TIMESTAMP);
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			dayDate.formatAsString();
+		}
+	}
+
+	@Test
+	public void parse() throws ParseException {
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			new DayDate("2020-05-29");
+		}
+	}
+
+	@Test
+	public void json() {
+		String json = Json.toJson(new DayDate(TIMESTAMP));
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			Json.fromJson(json, DayDate.class);
+		}
+	}
+
+}
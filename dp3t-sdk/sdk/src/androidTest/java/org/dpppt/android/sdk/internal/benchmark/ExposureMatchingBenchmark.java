@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal.benchmark;
+
+import android.content.Context;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.android.gms.nearby.exposurenotification.ExposureWindow;
+import com.google.android.gms.nearby.exposurenotification.ScanInstance;
+
+import org.dpppt.android.sdk.internal.AppConfigManager;
+import org.dpppt.android.sdk.internal.nearby.ExposureWindowMatchingWorker;
+import org.dpppt.android.sdk.internal.nearby.MatchingParameters;
+import org.dpppt.android.sdk.internal.nearby.MatchingSweep;
+import org.dpppt.android.sdk.models.DayDate;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ExposureMatchingBenchmark {
+
+	private static final int NUMBER_OF_WINDOWS = 5000;
+	private static final int SCAN_INSTANCES_PER_WINDOW = 20;
+	private static final int NUMBER_OF_DAYS = 14;
+	private static final int NUMBER_OF_CONFIGURATIONS = 200;
+
+	@Rule
+	public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+	private Context context;
+	private List<ExposureWindow> exposureWindows;
+
+	@Before
+	public void setup() {
+		context = InstrumentationRegistry.getInstrumentation().getContext();
+		AppConfigManager.getInstance(context).clearPreferences();
+
+		Random random = new Random(42);
+		DayDate today = new DayDate();
+		exposureWindows = new ArrayList<>(NUMBER_OF_WINDOWS);
+		for (int i = 0; i < NUMBER_OF_WINDOWS; i++) {
+			List<ScanInstance> scanInstances = new ArrayList<>(SCAN_INSTANCES_PER_WINDOW);
+			for (int j = 0; j < SCAN_INSTANCES_PER_WINDOW; j++) {
+				int attenuation = 40 + random.nextInt(40);
+				scanInstances.add(new ScanInstance.Builder()
+						.setMinAttenuationDb(attenuation)
+						.setTypicalAttenuationDb(attenuation)
+						.setSecondsSinceLastScan(60 + random.nextInt(240))
+						.build());
+			}
+			exposureWindows.add(new ExposureWindow.Builder()
+					.setDateMillisSinceEpoch(today.subtractDays(random.nextInt(NUMBER_OF_DAYS)).getStartOfDayTimestamp())
+					.setScanInstances(scanInstances)
+					.build());
+		}
+	}
+
+	@Test
+	public void findExposureDays() {
+		MatchingParameters parameters = MatchingParameters.fromConfig(AppConfigManager.getInstance(context));
+		long currentTime = System.currentTimeMillis();
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			ExposureWindowMatchingWorker.findExposureDays(exposureWindows, parameters, currentTime);
+		}
+	}
+
+	@Test
+	public void findExposureDaysWithParameterSnapshot() {
+		long currentTime = System.currentTimeMillis();
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			MatchingParameters parameters = MatchingParameters.fromConfig(AppConfigManager.getInstance(context));
+			ExposureWindowMatchingWorker.findExposureDays(exposureWindows, parameters, currentTime);
+		}
+	}
+
+	@Test
+	public void findExposureDaysPerConfiguration() {
+		List<MatchingParameters> configurations = createConfigurations();
+		long currentTime = System.currentTimeMillis();
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			for (MatchingParameters configuration : configurations) {
+				ExposureWindowMatchingWorker.findExposureDays(exposureWindows, configuration, currentTime);
+			}
+		}
+	}
+
+	@Test
+	public void matchingSweep() {
+		List<MatchingParameters> configurations = createConfigurations();
+		long currentTime = System.currentTimeMillis();
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			MatchingSweep.evaluate(exposureWindows, configurations, currentTime);
+		}
+	}
+
+	private List<MatchingParameters> createConfigurations() {
+		List<MatchingParameters> configurations = new ArrayList<>(NUMBER_OF_CONFIGURATIONS);
+		for (int i = 0; i < NUMBER_OF_CONFIGURATIONS; i++) {
+			int thresholdLow = 45 + i % 20;
+			configurations.add(new MatchingParameters(thresholdLow, thresholdLow + 2 + i / 20, 1.0f, 0.5f, 15, 10));
+		}
+		return configurations;
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal.benchmark;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.HashMap;
+
+import org.dpppt.android.sdk.internal.util.Base64Util;
+import org.dpppt.android.sdk.util.JwsVerifier;
+import org.dpppt.android.sdk.util.SignatureUtil;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+
+import static org.dpppt.android.sdk.util.SignatureUtil.JWS_CLAIM_CONTENT_HASH;
+
+@RunWith(AndroidJUnit4.class)
+public class JwsVerifierBenchmark {
+
+	@Rule
+	public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+	private KeyPair keyPair;
+	private String jws;
+
+	@Before
+	public void setup() throws Exception {
+		keyPair = Keys.keyPairFor(SignatureAlgorithm.ES256);
+		HashMap<String, Object> claims = new HashMap<>();
+		MessageDigest digest = MessageDigest.getInstance(SignatureUtil.HASH_ALGO);
+		claims.put(JWS_CLAIM_CONTENT_HASH, Base64Util.toBase64(digest.digest("someRandomContent".getBytes())));
+		jws = Jwts.builder()
+				.addClaims(claims)
+				.setExpiration(new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000L))
+				.signWith(keyPair.getPrivate())
+				.compact();
+	}
+
+	@Test
+	public void parserPerResponse() throws Exception {
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			SignatureUtil.getVerifiedContentHash(jws, keyPair.getPublic());
+		}
+	}
+
+	@Test
+	public void sharedVerifier() throws Exception {
+		JwsVerifier verifier = new JwsVerifier(keyPair.getPublic(), 0);
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			verifier.getVerifiedContentHash(jws);
+		}
+	}
+
+	@Test
+	public void builtInVerifier() throws Exception {
+		JwsVerifier verifier = new JwsVerifier(keyPair.getPublic(), 0, JwsVerifier.Engine.BUILT_IN);
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			verifier.getVerifiedContentHash(jws);
+		}
+	}
+
+	@Test
+	public void sharedVerifierRepeatedResponse() throws Exception {
+		JwsVerifier verifier = new JwsVerifier(keyPair.getPublic());
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			verifier.getVerifiedContentHash(jws);
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal.benchmark;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.security.crypto.EncryptedSharedPreferences;
+import androidx.security.crypto.MasterKeys;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dpppt.android.sdk.internal.storage.EncryptedRecordStore;
+import org.dpppt.android.sdk.internal.util.Json;
+import org.dpppt.android.sdk.models.DayDate;
+import org.dpppt.android.sdk.models.ExposureDay;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares changing one of the exposure days in a JSON list in encrypted shared preferences, as the exposure days used to be
+ * stored, with changing its record in an {@link EncryptedRecordStore}. The bytes that one change writes are logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RecordStoreBenchmark {
+
+	private static final String TAG = "RecordStoreBenchmark";
+
+	private static final String BLOB_PREFS_NAME = "benchmark_blob_store";
+	private static final String RECORD_STORE_NAME = "benchmark_records";
+	private static final int RECORD_SIZE = 18;
+	private static final int NUMBER_OF_DAYS = 14;
+
+	@Rule
+	public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+	private Context context;
+	private List<ExposureDay> exposureDays;
+
+	@Before
+	public void setup() {
+		context = InstrumentationRegistry.getInstrumentation().getContext();
+		exposureDays = new ArrayList<>();
+		DayDate today = new DayDate();
+		for (int i = 0; i < NUMBER_OF_DAYS; i++) {
+			exposureDays.add(new ExposureDay(i + 1, today.subtractDays(i), System.currentTimeMillis()));
+		}
+	}
+
+	@Test
+	public void blobUpdate() throws Exception {
+		SharedPreferences esp = EncryptedSharedPreferences.create(BLOB_PREFS_NAME,
+				MasterKeys.getOrCreate(MasterKeys.AES256_GCM_SPEC),
+				context,
+				EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
+				EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM);
+		esp.edit().putString("exposureDays", Json.toJson(exposureDays)).commit();
+
+		BenchmarkState state = benchmarkRule.getState();
+		int i = 0;
+		while (state.keepRunning()) {
+			exposureDays.get(i++ % NUMBER_OF_DAYS).setDeleted(i % 2 == 0);
+			// the whole list is encrypted, and the whole preferences file is written
+			esp.edit().putString("exposureDays", Json.toJson(exposureDays)).commit();
+		}
+
+		File prefsFile = new File(new File(context.getApplicationInfo().dataDir, "shared_prefs"), BLOB_PREFS_NAME + ".xml");
+		Log.i(TAG, "blob store writes " + prefsFile.length() + " bytes per change");
+		esp.edit().clear().commit();
+	}
+
+	@Test
+	public void recordUpdate() {
+		EncryptedRecordStore recordStore = new EncryptedRecordStore(context, RECORD_STORE_NAME, RECORD_SIZE);
+		recordStore.clear();
+		int[] recordIds = new int[NUMBER_OF_DAYS];
+		for (int i = 0; i < NUMBER_OF_DAYS; i++) {
+			recordIds[i] = recordStore.append(encode(exposureDays.get(i)));
+		}
+
+		long bytesWritten = recordStore.getBytesWritten();
+		BenchmarkState state = benchmarkRule.getState();
+		int i = 0;
+		long changes = 0;
+		while (state.keepRunning()) {
+			int index = i++ % NUMBER_OF_DAYS;
+			exposureDays.get(index).setDeleted(i % 2 == 0);
+			recordStore.update(recordIds[index], encode(exposureDays.get(index)));
+			changes++;
+		}
+
+		Log.i(TAG, "record store writes " + (recordStore.getBytesWritten() - bytesWritten) / changes + " bytes per change");
+		recordStore.clear();
+	}
+
+	private static byte[] encode(ExposureDay exposureDay) {
+		return ByteBuffer.allocate(RECORD_SIZE)
+				.put((byte) 1)
+				.putInt(exposureDay.getId())
+				.putInt((int) exposureDay.getExposedDate().getEpochDay())
+				.putLong(exposureDay.getReportDate())
+				.put((byte) (exposureDay.isDeleted() ? 1 : 0))
+				.array();
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package org.dpppt.android.sdk.internal.benchmark;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.nio.ByteBuffer;
+
+import org.dpppt.android.sdk.internal.AppConfigManager;
+import org.dpppt.android.sdk.internal.storage.EncryptedRecordStore;
+import org.dpppt.android.sdk.internal.storage.ErrorNotificationStorage;
+import org.dpppt.android.sdk.internal.storage.ExposureDayStorage;
+import org.dpppt.android.sdk.internal.storage.StoragePreloader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares opening a store, as the first status request on the main thread used to do, with the storage reads of a status
+ * request after the stores were preloaded in the background.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StorageStartupBenchmark {
+
+	private static final String TAG = "StorageStartupBenchmark";
+
+	private static final String RECORD_STORE_NAME = "benchmark_startup_records";
+	private static final int RECORD_SIZE = 18;
+	private static final int NUMBER_OF_RECORDS = 14;
+
+	@Rule
+	public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+	private Context context;
+
+	@Before
+	public void setup() {
+		context = InstrumentationRegistry.getInstrumentation().getContext();
+	}
+
+	@Test
+	public void coldStoreOpen() {
+		EncryptedRecordStore recordStore = new EncryptedRecordStore(context, RECORD_STORE_NAME, RECORD_SIZE);
+		recordStore.clear();
+		for (int i = 0; i < NUMBER_OF_RECORDS; i++) {
+			recordStore.append(ByteBuffer.allocate(RECORD_SIZE).put((byte) 1).putInt(i).array());
+		}
+
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			// a new instance reads the slots and decrypts all records, as a store does on its first use
+			new EncryptedRecordStore(context, RECORD_STORE_NAME, RECORD_SIZE).readAll((recordId, record) -> { });
+		}
+		recordStore.clear();
+	}
+
+	@Test
+	public void getStatusAfterPreload() {
+		StoragePreloader.preload(context);
+		StoragePreloader.awaitPreload();
+		Log.i(TAG, "preload took " + StoragePreloader.getPreloadDuration() + "ms");
+
+		AppConfigManager appConfigManager = AppConfigManager.getInstance(context);
+		BenchmarkState state = benchmarkRule.getState();
+		while (state.keepRunning()) {
+			// the storage reads of DP3T.getStatus and of the error notifications
+			appConfigManager.isTracingEnabled();
+			appConfigManager.getLastSyncDate();
+			appConfigManager.getIAmInfected();
+			ExposureDayStorage.getInstance(context).getExposureDays();
+			ErrorNotificationStorage.getInstance(context).getLastShownErrors();
+		}
+	}
+
+}
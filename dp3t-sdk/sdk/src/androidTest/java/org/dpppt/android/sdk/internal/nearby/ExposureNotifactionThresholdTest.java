@@ -13,14 +13,26 @@ import android.content.Context;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.android.gms.nearby.exposurenotification.ExposureWindow;
+import com.google.android.gms.nearby.exposurenotification.ScanInstance;
+
 import org.dpppt.android.sdk.internal.AppConfigManager;
+import org.dpppt.android.sdk.models.DayDate;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.dpppt.android.sdk.internal.nearby.ExposureWindowMatchingWorker.convertAttenuationDurationsToMinutes;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 
 @RunWith(AndroidJUnit4.class)
 public class ExposureNotifactionThresholdTest {
@@ -66,6 +78,24 @@ public class ExposureNotifactionThresholdTest {
 		assertFalse(ExposureWindowMatchingWorker.isExposureLimitReached(context, new int[] { 19, 0, 30 }));
 	}
 
+	@Test
+	public void testConfigSnapshot() {
+		AppConfigManager appConfigManager = AppConfigManager.getInstance(context);
+		appConfigManager.clearPreferences();
+		MatchingParameters defaults = MatchingParameters.fromConfig(appConfigManager);
+		assertSame(defaults, MatchingParameters.fromConfig(appConfigManager));
+
+		appConfigManager.edit()
+				.setAttenuationThresholds(40, 50)
+				.setMinDurationForExposure(10)
+				.apply();
+		MatchingParameters changed = MatchingParameters.fromConfig(appConfigManager);
+		assertEquals(40, changed.getAttenuationThresholdLow());
+		assertEquals(50, changed.getAttenuationThresholdMedium());
+		assertTrue(changed.isExposureLimitReached(10, 0));
+		assertFalse(defaults.isExposureLimitReached(10, 0));
+	}
+
 	@Test
 	public void testDefaultWithSeconds() {
 		AppConfigManager appConfigManager = AppConfigManager.getInstance(context);
@@ -80,4 +110,100 @@ public class ExposureNotifactionThresholdTest {
 		assertFalse(ExposureWindowMatchingWorker.isExposureLimitReached(context, convertAttenuationDurationsToMinutes(new int[] { 0, 29*60, 30*60 })));
 	}
 
+	@Test
+	public void testFindExposureDays() {
+		MatchingParameters parameters = new MatchingParameters(55, 63, 1.0f, 0.5f, 15, 10);
+		DayDate today = new DayDate(System.currentTimeMillis());
+		List<ExposureWindow> exposureWindows = new ArrayList<>();
+		// 8 + 7 minutes below the low threshold on the same day reach the limit
+		exposureWindows.add(createWindow(today.subtractDays(2), 50, 8 * 60));
+		exposureWindows.add(createWindow(today.subtractDays(2), 54, 7 * 60));
+		// 20 minutes between the thresholds only count half
+		exposureWindows.add(createWindow(today.subtractDays(3), 60, 20 * 60));
+		// above the medium threshold nothing counts
+		exposureWindows.add(createWindow(today.subtractDays(4), 70, 60 * 60));
+		// outside of the considered days
+		exposureWindows.add(createWindow(today.subtractDays(11), 50, 60 * 60));
+
+		List<DayDate> exposureDays =
+				ExposureWindowMatchingWorker.findExposureDays(exposureWindows, parameters, System.currentTimeMillis());
+		assertEquals(Collections.singletonList(today.subtractDays(2)), exposureDays);
+	}
+
+	@Test
+	public void testMatchingSweep() {
+		DayDate today = new DayDate(System.currentTimeMillis());
+		List<ExposureWindow> exposureWindows = new ArrayList<>();
+		exposureWindows.add(createWindow(today.subtractDays(2), 50, 8 * 60));
+		exposureWindows.add(createWindow(today.subtractDays(2), 54, 7 * 60 - 30));
+		exposureWindows.add(createWindow(today.subtractDays(3), 60, 20 * 60));
+		exposureWindows.add(createWindow(today.subtractDays(4), 70, 60 * 60));
+		exposureWindows.add(createWindow(today.subtractDays(8), 50, 60 * 60));
+
+		List<MatchingParameters> configurations = Arrays.asList(
+				new MatchingParameters(55, 63, 1.0f, 0.5f, 15, 10),
+				new MatchingParameters(61, 63, 1.0f, 0.5f, 15, 10),
+				new MatchingParameters(55, 71, 1.0f, 0.25f, 15, 10),
+				new MatchingParameters(40, 63, 1.0f, 1.0f, 20, 5));
+		long currentTime = System.currentTimeMillis();
+		MatchingSweep.Result result = MatchingSweep.evaluate(exposureWindows, configurations, currentTime);
+
+		for (int c = 0; c < configurations.size(); c++) {
+			List<DayDate> expected =
+					ExposureWindowMatchingWorker.findExposureDays(exposureWindows, configurations.get(c), currentTime);
+			List<DayDate> actual = new ArrayList<>();
+			for (int dayIndex = 0; dayIndex < result.getNumberOfDays(); dayIndex++) {
+				if (result.isExposureLimitReached(c, dayIndex)) {
+					actual.add(new DayDate(TimeUnit.DAYS.toMillis(result.getOldestDay() + dayIndex)));
+				}
+			}
+			assertEquals(expected, actual);
+		}
+		int dayIndex = (int) (TimeUnit.MILLISECONDS.toDays(today.subtractDays(3).getStartOfDayTimestamp()) - result.getOldestDay());
+		assertEquals(10f, result.getWeightedMinutes(0, dayIndex), 0);
+		assertEquals(20f, result.getWeightedMinutes(1, dayIndex), 0);
+	}
+
+	@Test
+	public void testMatchingSweepMatchesFutureAndEmptyDays() {
+		DayDate today = new DayDate(System.currentTimeMillis());
+		List<ExposureWindow> exposureWindows = new ArrayList<>();
+		exposureWindows.add(createWindow(today.subtractDays(1), 50, 20 * 60));
+		// dated after today, e.g. by a wrong device clock
+		exposureWindows.add(createWindow(today.addDays(2), 50, 20 * 60));
+
+		List<MatchingParameters> configurations = Arrays.asList(
+				new MatchingParameters(55, 63, 1.0f, 0.5f, 15, 10),
+				// every day with windows is exposed, days without windows must still not be
+				new MatchingParameters(55, 63, 1.0f, 0.5f, 0, 5));
+		long currentTime = System.currentTimeMillis();
+		MatchingSweep.Result result = MatchingSweep.evaluate(exposureWindows, configurations, currentTime);
+
+		for (int c = 0; c < configurations.size(); c++) {
+			List<DayDate> expected =
+					ExposureWindowMatchingWorker.findExposureDays(exposureWindows, configurations.get(c), currentTime);
+			List<DayDate> actual = new ArrayList<>();
+			for (int dayIndex = 0; dayIndex < result.getNumberOfDays(); dayIndex++) {
+				if (result.isExposureLimitReached(c, dayIndex)) {
+					actual.add(new DayDate(TimeUnit.DAYS.toMillis(result.getOldestDay() + dayIndex)));
+				}
+			}
+			assertEquals(Arrays.asList(today.subtractDays(1), today.addDays(2)), expected);
+			assertEquals(expected, actual);
+		}
+	}
+
+	private ExposureWindow createWindow(DayDate date, int attenuation, int seconds) {
+		List<ScanInstance> scanInstances = new ArrayList<>();
+		scanInstances.add(new ScanInstance.Builder()
+				.setMinAttenuationDb(attenuation)
+				.setTypicalAttenuationDb(attenuation)
+				.setSecondsSinceLastScan(seconds)
+				.build());
+		return new ExposureWindow.Builder()
+				.setDateMillisSinceEpoch(date.getStartOfDayTimestamp())
+				.setScanInstances(scanInstances)
+				.build();
+	}
+
 }
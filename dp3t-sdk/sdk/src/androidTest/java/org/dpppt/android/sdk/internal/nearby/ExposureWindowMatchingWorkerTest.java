@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.nearby;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.work.Configuration;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.testing.SynchronousExecutor;
+import androidx.work.testing.WorkManagerTestInitHelper;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.android.gms.nearby.exposurenotification.ExposureWindow;
+import com.google.android.gms.tasks.Task;
+
+import org.dpppt.android.sdk.internal.logger.LogLevel;
+import org.dpppt.android.sdk.internal.logger.Logger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class ExposureWindowMatchingWorkerTest {
+
+	private Context context;
+	private volatile int triggersDuringFirstRun;
+	private volatile boolean firstRun;
+	private final AtomicInteger exposureWindowRequests = new AtomicInteger();
+
+	@Before
+	public void setup() throws Exception {
+		context = InstrumentationRegistry.getInstrumentation().getContext();
+
+		Logger.init(context, LogLevel.DEBUG);
+
+		Configuration config = new Configuration.Builder()
+				.setMinimumLoggingLevel(Log.DEBUG)
+				.setExecutor(new SynchronousExecutor())
+				.build();
+		WorkManagerTestInitHelper.initializeTestWorkManager(context, config);
+
+		GoogleExposureClient.wrapTestClient(new TestGoogleExposureClient(context) {
+			@Override
+			public Task<List<ExposureWindow>> getExposureWindows() {
+				exposureWindowRequests.incrementAndGet();
+				if (firstRun) {
+					firstRun = false;
+					// triggers that arrive while the worker is matching
+					for (int i = 0; i < triggersDuringFirstRun; i++) {
+						ExposureWindowMatchingWorker.startMatchingWorker(context);
+					}
+				}
+				return super.getExposureWindows();
+			}
+		});
+		awaitMatchingFinished();
+	}
+
+	@Test
+	public void testTriggersAreMergedIntoScheduledRun() throws Exception {
+		OneTimeWorkRequest pendingRequest = enqueuePendingRun();
+
+		long triggers = ExposureWindowMatchingWorker.getTriggerCount();
+		long mergedTriggers = ExposureWindowMatchingWorker.getMergedTriggerCount();
+		long runs = ExposureWindowMatchingWorker.getRunCount();
+		ExposureWindowMatchingWorker.startMatchingWorker(context);
+		ExposureWindowMatchingWorker.startMatchingWorker(context);
+		ExposureWindowMatchingWorker.startMatchingWorker(context);
+
+		WorkManagerTestInitHelper.getTestDriver(context).setInitialDelayMet(pendingRequest.getId());
+		awaitMatchingFinished();
+
+		assertEquals(3, ExposureWindowMatchingWorker.getTriggerCount() - triggers);
+		assertEquals(2, ExposureWindowMatchingWorker.getMergedTriggerCount() - mergedTriggers);
+		assertEquals(1, ExposureWindowMatchingWorker.getRunCount() - runs);
+	}
+
+	@Test
+	public void testRescoringIsARunOfTheWorker() throws Exception {
+		OneTimeWorkRequest pendingRequest = enqueuePendingRun();
+		long mergedTriggers = ExposureWindowMatchingWorker.getMergedTriggerCount();
+		long runs = ExposureWindowMatchingWorker.getRunCount();
+		ExposureWindowMatchingWorker.rescoreExposureDays(context);
+		ExposureWindowMatchingWorker.rescoreExposureDays(context);
+
+		WorkManagerTestInitHelper.getTestDriver(context).setInitialDelayMet(pendingRequest.getId());
+		awaitMatchingFinished();
+
+		assertEquals(1, ExposureWindowMatchingWorker.getMergedTriggerCount() - mergedTriggers);
+		assertEquals(1, ExposureWindowMatchingWorker.getRunCount() - runs);
+		// only rescores were requested, so the windows are not requested from the EN framework
+		assertEquals(0, exposureWindowRequests.get());
+
+		// a matching run scores the days with the current parameters as well, so a rescore is merged into it
+		pendingRequest = enqueuePendingRun();
+		ExposureWindowMatchingWorker.rescoreExposureDays(context);
+		ExposureWindowMatchingWorker.startMatchingWorker(context);
+
+		WorkManagerTestInitHelper.getTestDriver(context).setInitialDelayMet(pendingRequest.getId());
+		awaitMatchingFinished();
+
+		assertEquals(2, ExposureWindowMatchingWorker.getRunCount() - runs);
+		assertEquals(1, exposureWindowRequests.get());
+	}
+
+	@Test
+	public void testTriggersDuringRunCauseOneMoreRun() throws Exception {
+		triggersDuringFirstRun = 3;
+		firstRun = true;
+
+		long triggers = ExposureWindowMatchingWorker.getTriggerCount();
+		long mergedTriggers = ExposureWindowMatchingWorker.getMergedTriggerCount();
+		long runs = ExposureWindowMatchingWorker.getRunCount();
+		ExposureWindowMatchingWorker.startMatchingWorker(context);
+		awaitMatchingFinished();
+
+		assertEquals(4, ExposureWindowMatchingWorker.getTriggerCount() - triggers);
+		// the first trigger during the run marks it dirty, the others are merged into the repetition
+		assertEquals(2, ExposureWindowMatchingWorker.getMergedTriggerCount() - mergedTriggers);
+		assertEquals(2, ExposureWindowMatchingWorker.getRunCount() - runs);
+
+		// the worker is idle again, the next trigger schedules a new run
+		ExposureWindowMatchingWorker.startMatchingWorker(context);
+		awaitMatchingFinished();
+		assertEquals(3, ExposureWindowMatchingWorker.getRunCount() - runs);
+	}
+
+	/**
+	 * Enqueues a run that stays pending until its initial delay is met, e.g. like a run that did not get a thread yet.
+	 */
+	private OneTimeWorkRequest enqueuePendingRun() throws Exception {
+		OneTimeWorkRequest pendingRequest = new OneTimeWorkRequest.Builder(ExposureWindowMatchingWorker.class)
+				.setInitialDelay(1, TimeUnit.HOURS)
+				.addTag(ExposureWindowMatchingWorker.WORK_TAG)
+				.build();
+		WorkManager.getInstance(context)
+				.enqueueUniqueWork(ExposureWindowMatchingWorker.WORK_NAME, ExistingWorkPolicy.KEEP, pendingRequest)
+				.getResult().get();
+		return pendingRequest;
+	}
+
+	private void awaitMatchingFinished() throws Exception {
+		long deadline = System.currentTimeMillis() + 10 * 1000L;
+		while (!isMatchingFinished()) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("matching did not finish in time");
+			}
+			Thread.sleep(50);
+		}
+	}
+
+	private boolean isMatchingFinished() throws Exception {
+		List<WorkInfo> workInfos =
+				WorkManager.getInstance(context).getWorkInfosForUniqueWork(ExposureWindowMatchingWorker.WORK_NAME).get();
+		for (WorkInfo workInfo : workInfos) {
+			if (!workInfo.getState().isFinished()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -29,6 +29,7 @@ import org.dpppt.android.sdk.backend.ResponseCallback;
 import org.dpppt.android.sdk.backend.UserAgentInterceptor;
 import org.dpppt.android.sdk.internal.*;
 import org.dpppt.android.sdk.internal.backend.CertificatePinning;
+import org.dpppt.android.sdk.internal.backend.SharedHttpClient;
 import org.dpppt.android.sdk.internal.backend.SyncErrorState;
 import org.dpppt.android.sdk.internal.backend.models.GaenKey;
 import org.dpppt.android.sdk.internal.backend.models.GaenRequest;
@@ -36,11 +37,15 @@ import org.dpppt.android.sdk.internal.history.HistoryDatabase;
 import org.dpppt.android.sdk.internal.history.HistoryEntry;
 import org.dpppt.android.sdk.internal.history.HistoryEntryType;
 import org.dpppt.android.sdk.internal.logger.Logger;
+import org.dpppt.android.sdk.internal.nearby.ExposureWindowMatchingWorker;
 import org.dpppt.android.sdk.internal.nearby.GaenStateCache;
 import org.dpppt.android.sdk.internal.nearby.GaenStateHelper;
 import org.dpppt.android.sdk.internal.nearby.GoogleExposureClient;
 import org.dpppt.android.sdk.internal.storage.ErrorNotificationStorage;
 import org.dpppt.android.sdk.internal.storage.ExposureDayStorage;
+import org.dpppt.android.sdk.internal.storage.KeyFileStore;
+import org.dpppt.android.sdk.internal.storage.MatchingStateStore;
+import org.dpppt.android.sdk.internal.storage.StoragePreloader;
 import org.dpppt.android.sdk.internal.util.PackageManagerUtil;
 import org.dpppt.android.sdk.models.ApplicationInfo;
 import org.dpppt.android.sdk.models.DayDate;
@@ -65,6 +70,7 @@ public class DP3T {
 	private static boolean initialized = false;
 
 	private static UserAgentInterceptor.UserAgentGenerator userAgent = () -> "dp3t-sdk-android";
+	private static volatile RiskScorer riskScorer;
 
 	private static PendingStartCallbacks pendingStartCallbacks;
 	private static ResponseCallback<PendingUploadTask> pendingShareTEKsPopupCallback;
@@ -75,9 +81,14 @@ public class DP3T {
 
 	public static void init(Context context, ApplicationInfo applicationInfo, PublicKey signaturePublicKey, boolean devHistory) {
 		AppConfigManager appConfigManager = AppConfigManager.getInstance(context);
-		appConfigManager.setManualApplicationInfo(applicationInfo);
-		appConfigManager.setDevHistory(devHistory);
+		appConfigManager.edit()
+				.setManualApplicationInfo(applicationInfo)
+				.setDevHistory(devHistory)
+				.apply();
+		// opens the stores in the background, before the app asks for the status on the main thread
+		StoragePreloader.preload(context);
 		SyncWorker.setBucketSignaturePublicKey(signaturePublicKey);
+		TrustedTime.getInstance(context);
 
 		executeInit(context.getApplicationContext(), appConfigManager);
 
@@ -204,6 +215,10 @@ public class DP3T {
 		return appConfigManager.isTracingEnabled();
 	}
 
+	/**
+	 * Syncs the published keys on the calling thread. Prefer {@link #syncAsync(Context, Consumer)}, which does not block and
+	 * reports the outcome of the sync.
+	 */
 	public static void sync(Context context) {
 		checkInit();
 		try {
@@ -213,6 +228,17 @@ public class DP3T {
 		}
 	}
 
+	/**
+	 * Syncs the published keys in the background. If a sync is already running, its outcome is reported instead of starting
+	 * another one.
+	 * @param context
+	 * @param callback called on the main thread with the outcome of the sync
+	 * @return a handle that allows to cancel the sync
+	 */
+	public static SyncHandle syncAsync(Context context, Consumer<SyncResult> callback) {
+		return DP3TKotlin.syncWithResultAsync(context, callback);
+	}
+
 	public static TracingStatus getStatus(Context context) {
 		checkInit();
 		GaenStateHelper.invalidateGaenEnabled(context);
@@ -403,10 +429,75 @@ public class DP3T {
 		return userAgent;
 	}
 
+	/**
+	 * Replaces the risk model that decides on which days the exposure windows amount to an exposure. If null, the attenuation
+	 * durations are weighted with the parameters set by {@link #setMatchingParameters}. The scorer is not persisted, so it has
+	 * to be set again on every start of the app, e.g. in {@link android.app.Application#onCreate()}.
+	 */
+	public static void setRiskScorer(@Nullable RiskScorer riskScorer) {
+		DP3T.riskScorer = riskScorer;
+	}
+
+	@Nullable
+	public static RiskScorer getRiskScorer() {
+		return riskScorer;
+	}
+
+	/**
+	 * Sets the size of the HTTP cache that is shared by all requests of the SDK. This must be called before the SDK makes its
+	 * first request, i.e. before {@link #init(Context, ApplicationInfo, PublicKey)}.
+	 * <p>
+	 * The default value used is {@value org.dpppt.android.sdk.internal.backend.SharedHttpClient#DEFAULT_CACHE_SIZE}
+	 * @param cacheSizeBytes
+	 */
+	public static void setHttpCacheSize(long cacheSizeBytes) {
+		SharedHttpClient.setCacheSize(cacheSizeBytes);
+	}
+
+	/**
+	 * Sets the maximum size of the downloaded key bundles kept by the SDK. If the limit is exceeded, e.g. because the bundles
+	 * could not be provided to the EN framework for a while, the least recently downloaded bundles are removed.
+	 */
+	public static void setKeyFileStoreQuota(Context context, long quotaBytes) {
+		KeyFileStore.getInstance(context).setQuota(quotaBytes);
+	}
+
 	public static void setSyncErrorGracePeriod(long gracePeriodMillis) {
 		SyncErrorState.getInstance().setSyncErrorGracePeriod(gracePeriodMillis);
 	}
 
+	/**
+	 * Sets the delay before the first retry of a background sync that failed with a transient error, e.g. a network or server
+	 * error. Each further retry doubles the delay. Retries stop once they would exceed the sync error grace period, the next
+	 * regular sync takes over from there. Errors that would occur again, such as an invalid signature, are not retried.
+	 * @param context
+	 * @param initialBackoffMillis the initial delay in milliseconds, at least 10 seconds
+	 */
+	public static void setSyncRetryBackoff(Context context, long initialBackoffMillis) {
+		SyncScheduler.setRetryBackoff(context, initialBackoffMillis);
+	}
+
+	/**
+	 * By default, syncs keep their downloaded keys if the device clock is off, and only report
+	 * {@link TracingStatus.ErrorState#SYNC_ERROR_TIMING}. With the strict check, responses are rejected while the device clock
+	 * differs from the server time by more than 10 minutes.
+	 */
+	public static void setStrictServerTimeCheck(Context context, boolean strict) {
+		AppConfigManager.getInstance(context).setStrictServerTimeCheck(strict);
+	}
+
+	/**
+	 * Background syncs download and verify the key bundles first and provide them to the EN framework in a separate worker,
+	 * which needs no network. The conditions set here delay that worker, e.g. until the device is charging, at the cost of
+	 * later exposure notifications. Manual syncs always provide the keys right away.
+	 * @param context
+	 * @param requiresCharging
+	 * @param requiresDeviceIdle
+	 */
+	public static void setKeySubmissionConstraints(Context context, boolean requiresCharging, boolean requiresDeviceIdle) {
+		AppConfigManager.getInstance(context).setKeySubmissionConstraints(requiresCharging, requiresDeviceIdle);
+	}
+
 	public static void setErrorNotificationGracePeriod(long gracePeriodMillis) {
 		SyncErrorState.getInstance().setErrorNotificationGracePeriod(gracePeriodMillis);
 	}
@@ -419,11 +510,13 @@ public class DP3T {
 			float attenuationFactorLow, float attenuationFactorMedium, int minDurationForExposure) {
 		checkInit();
 
-		AppConfigManager appConfigManager = AppConfigManager.getInstance(context);
-		appConfigManager.setAttenuationThresholds(attenuationThresholdLow, attenuationThresholdMedium);
-		appConfigManager.setAttenuationFactorLow(attenuationFactorLow);
-		appConfigManager.setAttenuationFactorMedium(attenuationFactorMedium);
-		appConfigManager.setMinDurationForExposure(minDurationForExposure);
+		AppConfigManager.getInstance(context).edit()
+				.setAttenuationThresholds(attenuationThresholdLow, attenuationThresholdMedium)
+				.setAttenuationFactorLow(attenuationFactorLow)
+				.setAttenuationFactorMedium(attenuationFactorMedium)
+				.setMinDurationForExposure(minDurationForExposure)
+				.apply();
+		ExposureWindowMatchingWorker.rescoreExposureDays(context);
 	}
 
 	/**
@@ -433,7 +526,27 @@ public class DP3T {
 	 * @param syncsPerDay
 	 */
 	public static void setSyncsPerDay(Context context, int syncsPerDay) {
-		AppConfigManager.getInstance(context).setSyncsPerDay(syncsPerDay);
+		AppConfigManager appConfigManager = AppConfigManager.getInstance(context);
+		appConfigManager.setSyncsPerDay(syncsPerDay);
+		if (appConfigManager.isTracingEnabled()) {
+			// plan the next sync for the new interval
+			SyncWorker.startSyncWorker(context);
+		}
+	}
+
+	/**
+	 * Sets the window across which the syncs for a newly published key bundle are spread. Each installation syncs at a stable
+	 * random offset within this window, which flattens the load on the bucket backend. A window announced by the backend takes
+	 * precedence over this value. By default the syncs are spread across the whole sync interval.
+	 * @param context
+	 * @param spreadWindowMillis the spread window in milliseconds, 0 disables the spreading, the window is capped at the sync
+	 * interval
+	 */
+	public static void setSyncSpreadWindow(Context context, long spreadWindowMillis) {
+		if (spreadWindowMillis < 0) {
+			throw new IllegalArgumentException("The spread window must not be negative");
+		}
+		AppConfigManager.getInstance(context).setSyncSpreadWindow(spreadWindowMillis);
 	}
 
 	/**
@@ -456,6 +569,7 @@ public class DP3T {
 
 		AppConfigManager appConfigManager = AppConfigManager.getInstance(context);
 		appConfigManager.setNumberOfDaysToConsiderForExposure(days);
+		ExposureWindowMatchingWorker.rescoreExposureDays(context);
 	}
 
 	/**
@@ -487,7 +601,9 @@ public class DP3T {
 		}
 
 		appConfigManager.clearPreferences();
+		KeyFileStore.getInstance(context).clear();
 		ExposureDayStorage.getInstance(context).clear();
+		MatchingStateStore.getInstance(context).clear();
 		ErrorNotificationStorage.getInstance(context).clear();
 		Logger.clear();
 	}
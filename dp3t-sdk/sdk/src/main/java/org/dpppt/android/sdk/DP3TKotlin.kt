@@ -1,8 +1,12 @@
 package org.dpppt.android.sdk
 
 import android.content.Context
+import androidx.core.util.Consumer
 import kotlinx.coroutines.*
 import org.dpppt.android.sdk.internal.AppConfigManager
+import org.dpppt.android.sdk.internal.ErrorHelper
+import org.dpppt.android.sdk.internal.SdkScope
+import org.dpppt.android.sdk.internal.SyncWorker
 import org.dpppt.android.sdk.internal.backend.StatusCodeException
 import org.dpppt.android.sdk.internal.backend.models.GaenRequest
 import org.dpppt.android.sdk.internal.history.HistoryDatabase
@@ -13,6 +17,7 @@ import org.dpppt.android.sdk.models.ExposeeAuthMethod
 import org.dpppt.android.sdk.util.DateUtil
 import java.io.IOException
 import java.util.*
+import java.util.concurrent.CancellationException
 
 object DP3TKotlin : DP3T() {
 
@@ -41,6 +46,34 @@ object DP3TKotlin : DP3T() {
 		}
 	}
 
+	@JvmStatic
+	fun syncWithResultAsync(context: Context, callback: Consumer<SyncResult>): SyncHandle {
+		checkInit()
+
+		val job = SdkScope.launch(Dispatchers.Main) {
+			val syncResult = syncWithResult(context)
+			callback.accept(syncResult)
+		}
+		return SyncHandle(job)
+	}
+
+	/**
+	 * Syncs the published keys, or waits for the sync that is already running, and reports what happened. Errors are not
+	 * thrown but reported as part of the [SyncResult].
+	 */
+	suspend fun syncWithResult(context: Context): SyncResult = withContext(Dispatchers.IO) {
+		checkInit()
+
+		try {
+			SyncWorker.SyncImpl(context).doSync()
+		} catch (e: Exception) {
+			if (e is CancellationException && !isActive) {
+				throw e
+			}
+			SyncResult.error(ErrorHelper.getSyncErrorFromException(e, false), false, ErrorHelper.isRetryableSyncError(e))
+		}
+	}
+
 	@Throws(Exception::class)
 	suspend fun sendFakeInfectedRequest(
 		context: Context,
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk;
+
+import com.google.android.gms.nearby.exposurenotification.ExposureWindow;
+
+/**
+ * Risk model that decides on which days the exposure windows amount to an exposure. The windows of a day are folded into a
+ * fixed number of accumulators in a single pass. The accumulators are kept between matching runs, so every window is only
+ * added once.
+ * <p>
+ * The scorer is called for every window and scan instance, so implementations should not allocate while adding windows.
+ * They must be immutable, as they are used from the matching worker.
+ */
+public interface RiskScorer {
+
+	/**
+	 * Identifies how windows are folded into the accumulators, e.g. the model and its attenuation thresholds. If the key
+	 * changes, the accumulators are rebuilt from the windows that are reported by the EN framework.
+	 */
+	String getAccumulatorKey();
+
+	/**
+	 * @return the number of accumulators per day
+	 */
+	int getNumberOfAccumulators();
+
+	/**
+	 * Adds a window to the accumulators of its day.
+	 * @param accumulators the accumulators of the day start at offset
+	 */
+	void addExposureWindow(ExposureWindow exposureWindow, double[] accumulators, int offset);
+
+	/**
+	 * @param accumulators the accumulators of the day start at offset
+	 * @return whether the windows of the day amount to an exposure
+	 */
+	boolean isExposureLimitReached(double[] accumulators, int offset);
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk
+
+import kotlinx.coroutines.Job
+
+/**
+ * Handle to a sync started with [DP3T.syncAsync]. After cancelling it, the callback will not be called. The sync itself is
+ * shared with other callers and runs in the background of the SDK, cancelling only stops waiting for it.
+ */
+class SyncHandle internal constructor(private val job: Job) {
+
+	fun cancel() {
+		job.cancel()
+	}
+
+	val isDone: Boolean
+		get() = job.isCompleted
+
+	val isCancelled: Boolean
+		get() = job.isCancelled
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.dpppt.android.sdk.TracingStatus.ErrorState;
+
+public class SyncResult {
+
+	public enum Status {
+		/** new keys were downloaded, they are provided to the EN framework right away or by the key submission worker */
+		SYNCED,
+		/** the backend had no new keys since the last sync */
+		NO_NEW_KEYS,
+		/** the sync was skipped, because the last sync is more recent than the sync interval */
+		SKIPPED_RATE_LIMIT,
+		/** the sync was skipped, because tracing or the EN framework is disabled */
+		NOT_ACTIVE,
+		/** the sync failed, but the error is not reported yet because the last successful sync is within the grace period */
+		DELAYED_ERROR,
+		/** the sync failed, see {@link #getErrorState()} */
+		ERROR
+	}
+
+	private final Status status;
+	private final long providedBytes;
+	private final ErrorState errorState;
+	private final String errorCode;
+	private final boolean retryable;
+
+	private SyncResult(Status status, long providedBytes, @Nullable ErrorState errorState, boolean retryable) {
+		this.status = status;
+		this.providedBytes = providedBytes;
+		this.errorState = errorState;
+		// the error code is stored in the shared enum constant, keep the value it had for this sync
+		this.errorCode = errorState != null ? errorState.getErrorCode() : null;
+		this.retryable = retryable;
+	}
+
+	public static SyncResult synced(long providedBytes) {
+		return new SyncResult(Status.SYNCED, providedBytes, null, false);
+	}
+
+	public static SyncResult of(Status status) {
+		return new SyncResult(status, 0, null, false);
+	}
+
+	public static SyncResult error(@NonNull ErrorState errorState, boolean delayed, boolean retryable) {
+		return new SyncResult(delayed ? Status.DELAYED_ERROR : Status.ERROR, 0, errorState, retryable);
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the size of the key bundle that was provided to the EN framework, 0 unless the status is {@link Status#SYNCED}
+	 */
+	public long getProvidedBytes() {
+		return providedBytes;
+	}
+
+	@Nullable
+	public ErrorState getErrorState() {
+		return errorState;
+	}
+
+	@Nullable
+	public String getErrorCode() {
+		return errorCode;
+	}
+
+	/**
+	 * @return true if the sync failed with an error that is likely to go away when the sync is repeated shortly after
+	 */
+	public boolean isRetryable() {
+		return retryable;
+	}
+
+	public boolean isSuccessful() {
+		return status != Status.ERROR && status != Status.DELAYED_ERROR;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(status.name());
+		if (status == Status.SYNCED) {
+			sb.append(" ").append(providedBytes).append(" bytes");
+		}
+		if (errorState != null) {
+			sb.append(" ").append(errorState.name()).append(":").append(errorCode);
+		}
+		return sb.toString();
+	}
+
+}
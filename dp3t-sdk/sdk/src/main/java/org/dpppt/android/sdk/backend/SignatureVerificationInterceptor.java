@@ -13,25 +13,58 @@ import androidx.annotation.NonNull;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.util.Arrays;
 
+import org.dpppt.android.sdk.util.JwsVerifier;
 import org.dpppt.android.sdk.util.SignatureUtil;
 
 import okhttp3.Interceptor;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
 import okio.BufferedSource;
+import okio.ForwardingSource;
 import okio.Okio;
+import okio.Source;
 
 public class SignatureVerificationInterceptor implements Interceptor {
 
-	private final PublicKey publicKey;
+	private static final int HTTP_PARTIAL_CONTENT = 206;
+
+	private final JwsVerifier verifier;
+	private final boolean streamingVerification;
 
 	public SignatureVerificationInterceptor(PublicKey publicKey) {
-		this.publicKey = publicKey;
+		this(publicKey, false);
+	}
+
+	public SignatureVerificationInterceptor(PublicKey publicKey, boolean streamingVerification) {
+		this(publicKey, streamingVerification, JwsVerifier.Engine.JJWT);
+	}
+
+	/**
+	 * @param engine the implementation used to verify the signatures, {@link JwsVerifier.Engine#BUILT_IN} avoids loading jjwt
+	 * but only accepts ES256 signatures
+	 */
+	public SignatureVerificationInterceptor(PublicKey publicKey, boolean streamingVerification, JwsVerifier.Engine engine) {
+		this(publicKey != null ? new JwsVerifier(publicKey, engine) : null, streamingVerification);
+	}
+
+	/**
+	 * @param verifier verifies the signatures, can be shared with other interceptors to reuse its cache of verified signatures
+	 * @param streamingVerification if true, the response body is not buffered in memory to verify its content hash. Instead,
+	 * the hash is computed while the consumer reads the body and a {@link SignatureException} is thrown by the final read
+	 * if it does not match the signed hash. Consumers must therefore read the body completely before trusting any of it.
+	 * This mode also accepts partial content responses, if the request is tagged with a {@link MessageDigest} that was fed
+	 * with the content preceding the requested range.
+	 */
+	public SignatureVerificationInterceptor(JwsVerifier verifier, boolean streamingVerification) {
+		this.verifier = verifier;
+		this.streamingVerification = streamingVerification;
 	}
 
 	@NonNull
@@ -52,29 +85,43 @@ public class SignatureVerificationInterceptor implements Interceptor {
 			throw new SignatureException("JWS header not found");
 		}
 
-		if (publicKey == null) {
+		if (verifier == null) {
 			throw new SignatureException("Public key not specified");
 		}
 
-		byte[] signedContentHash = SignatureUtil.getVerifiedContentHash(jwsHeader, publicKey);
+		byte[] signedContentHash = verifier.getVerifiedContentHash(jwsHeader);
 
 		ResponseBody body = response.body();
-		BufferedSource responseBuffer = Okio.buffer(Okio.source(body.byteStream()));
 
-		byte[] actualContentHash;
-		try {
-			MessageDigest digest = MessageDigest.getInstance(SignatureUtil.HASH_ALGO);
-			try (InputStream bodyStream = responseBuffer.peek().inputStream()) {
-				byte[] buffer = new byte[1024];
-				int len;
-				while ((len = bodyStream.read(buffer)) != -1) {
-					digest.update(buffer, 0, len);
+		if (streamingVerification) {
+			MessageDigest digest;
+			if (response.code() == HTTP_PARTIAL_CONTENT) {
+				// the signed hash covers the whole content, so the digest must already contain the bytes that were skipped
+				digest = chain.request().tag(MessageDigest.class);
+				if (digest == null) {
+					throw new SignatureException("Partial content without digest of the preceding bytes");
 				}
+			} else {
+				digest = getDigest();
+			}
+			BufferedSource verifyingSource =
+					Okio.buffer(new ContentHashVerifyingSource(body.source(), digest, signedContentHash));
+			return response.newBuilder()
+					.body(ResponseBody.create(body.contentType(), body.contentLength(), verifyingSource))
+					.build();
+		}
+
+		BufferedSource responseBuffer = Okio.buffer(Okio.source(body.byteStream()));
+
+		MessageDigest digest = getDigest();
+		try (InputStream bodyStream = responseBuffer.peek().inputStream()) {
+			byte[] buffer = new byte[1024];
+			int len;
+			while ((len = bodyStream.read(buffer)) != -1) {
+				digest.update(buffer, 0, len);
 			}
-			actualContentHash = digest.digest();
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
 		}
+		byte[] actualContentHash = digest.digest();
 
 		if (!Arrays.equals(actualContentHash, signedContentHash)) {
 			throw new SignatureException("Signature mismatch");
@@ -88,4 +135,55 @@ public class SignatureVerificationInterceptor implements Interceptor {
 				).build();
 	}
 
+	private static MessageDigest getDigest() {
+		try {
+			return MessageDigest.getInstance(SignatureUtil.HASH_ALGO);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class ContentHashVerifyingSource extends ForwardingSource {
+
+		private final MessageDigest digest;
+		private final byte[] signedContentHash;
+		private final OutputStream digestStream;
+		private boolean verified = false;
+
+		ContentHashVerifyingSource(Source delegate, MessageDigest digest, byte[] signedContentHash) {
+			super(delegate);
+			this.digest = digest;
+			this.signedContentHash = signedContentHash;
+			this.digestStream = new OutputStream() {
+				@Override
+				public void write(int b) {
+					digest.update((byte) b);
+				}
+
+				@Override
+				public void write(@NonNull byte[] b, int off, int len) {
+					digest.update(b, off, len);
+				}
+			};
+		}
+
+		@Override
+		public long read(@NonNull Buffer sink, long byteCount) throws IOException {
+			long offset = sink.size();
+			long read = super.read(sink, byteCount);
+			if (read == -1) {
+				if (!verified) {
+					if (!Arrays.equals(digest.digest(), signedContentHash)) {
+						throw new SignatureException("Signature mismatch");
+					}
+					verified = true;
+				}
+			} else {
+				sink.copyTo(digestStream, offset, read);
+			}
+			return read;
+		}
+
+	}
+
 }
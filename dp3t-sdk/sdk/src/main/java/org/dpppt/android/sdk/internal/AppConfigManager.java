@@ -13,8 +13,11 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import androidx.annotation.Nullable;
 
+import java.util.Random;
+
 import org.dpppt.android.sdk.TracingStatus;
 import org.dpppt.android.sdk.internal.backend.BackendReportRepository;
+import org.dpppt.android.sdk.internal.nearby.MatchingParameters;
 import org.dpppt.android.sdk.internal.util.Json;
 import org.dpppt.android.sdk.models.ApplicationInfo;
 
@@ -41,6 +44,19 @@ public class AppConfigManager {
 	private static final String PREF_I_AM_INFECTED_IS_RESETTABLE = "IAmInfectedIsResettable";
 	private static final String PREF_LAST_SYNC_CALL_TIME = "lastSyncCallTime";
 	private static final String PREF_LAST_KEY_BUNDLE_TAG = "lastKeyBundleTag";
+	private static final String PREF_NEXT_BUNDLE_TIME = "nextBundleTime";
+	private static final String PREF_SCHEDULED_SYNC_INTERVAL = "scheduledSyncInterval";
+	private static final String PREF_SYNC_JITTER_FRACTION = "syncJitterFraction";
+	private static final String PREF_SYNC_SPREAD_WINDOW = "syncSpreadWindow";
+	private static final String PREF_SERVER_SYNC_SPREAD_WINDOW = "serverSyncSpreadWindow";
+	private static final String PREF_SYNC_RETRY_BACKOFF = "syncRetryBackoff";
+	private static final String PREF_KEY_SUBMISSION_REQUIRES_CHARGING = "keySubmissionRequiresCharging";
+	private static final String PREF_KEY_SUBMISSION_REQUIRES_DEVICE_IDLE = "keySubmissionRequiresDeviceIdle";
+	private static final String PREF_STRICT_SERVER_TIME_CHECK = "strictServerTimeCheck";
+	private static final String PREF_TRUSTED_TIME_BOOT_TIME = "trustedTimeBootTime";
+	private static final String PREF_TRUSTED_TIME_SAMPLE_ELAPSED_REALTIME = "trustedTimeSampleElapsedRealtime";
+	private static final String PREF_TRUSTED_TIME_BOOT_COUNT = "trustedTimeBootCount";
+	private static final String PREF_TRUSTED_TIME_DEVICE_BOOT_TIME = "trustedTimeDeviceBootTime";
 	private static final String PREF_DEV_HISTORY = "devHistory";
 	private static final String PREF_EN_MODULE_VERSION = "enModuleVersion";
 	private static final String PREF_NUMBER_OF_DAYS_TO_CONSIDER_FOR_EXPOSURE = "numberOfDaysToConsiderForExposure";
@@ -63,16 +79,60 @@ public class AppConfigManager {
 
 	private SharedPreferences sharedPrefs;
 
+	private volatile SdkConfig config;
+
 	private AppConfigManager(Context context) {
 		sharedPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
 	}
 
+	/**
+	 * @return the cached snapshot of the configuration, it is only read from the preferences again after it was changed
+	 */
+	public SdkConfig getConfig() {
+		SdkConfig config = this.config;
+		if (config != null) {
+			return config;
+		}
+		synchronized (this) {
+			if (this.config == null) {
+				this.config = readConfig();
+			}
+			return this.config;
+		}
+	}
+
+	private SdkConfig readConfig() {
+		MatchingParameters matchingParameters = new MatchingParameters(
+				getAttenuationThresholdLow(),
+				getAttenuationThresholdMedium(),
+				getAttenuationFactorLow(),
+				getAttenuationFactorMedium(),
+				getMinDurationForExposure(),
+				getNumberOfDaysToConsiderForExposure()
+		);
+		return new SdkConfig(
+				Json.fromJson(sharedPrefs.getString(PREF_APPLICATION, "{}"), ApplicationInfo.class),
+				matchingParameters,
+				getNumberOfDaysToKeepExposedDays(),
+				getSyncsPerDay(),
+				getWithFederationGateway(),
+				getDevHistory()
+		);
+	}
+
+	/**
+	 * @return an editor that writes all its changes to the configuration at once when it is applied
+	 */
+	public Editor edit() {
+		return new Editor();
+	}
+
 	public void setManualApplicationInfo(ApplicationInfo applicationInfo) {
-		sharedPrefs.edit().putString(PREF_APPLICATION, Json.toJson(applicationInfo)).apply();
+		edit().setManualApplicationInfo(applicationInfo).apply();
 	}
 
 	public ApplicationInfo getAppConfig() {
-		return Json.fromJson(sharedPrefs.getString(PREF_APPLICATION, "{}"), ApplicationInfo.class);
+		return getConfig().getApplicationInfo();
 	}
 
 	public void setTracingEnabled(boolean enabled) {
@@ -92,12 +152,7 @@ public class AppConfigManager {
 	}
 
     public void setSyncsPerDay(int syncsPerDay) {
-	    if (syncsPerDay > MAX_SYNCS_PER_DAY) {
-            syncsPerDay = MAX_SYNCS_PER_DAY;
-        } else if (syncsPerDay < MIN_SYNCS_PER_DAY) {
-            syncsPerDay = MIN_SYNCS_PER_DAY;
-        }
-        sharedPrefs.edit().putInt(PREF_NUMBER_OF_SYNCS_PER_DAY, syncsPerDay).apply();
+        edit().setSyncsPerDay(syncsPerDay).apply();
     }
 
     public int getSyncsPerDay() {
@@ -146,7 +201,10 @@ public class AppConfigManager {
 	}
 
 	public void clearPreferences() {
-		sharedPrefs.edit().clear().apply();
+		synchronized (this) {
+			sharedPrefs.edit().clear().apply();
+			config = null;
+		}
 	}
 
 	public int getMinDurationForExposure() {
@@ -154,7 +212,7 @@ public class AppConfigManager {
 	}
 
 	public void setMinDurationForExposure(int minDuration) {
-		sharedPrefs.edit().putInt(PREF_MIN_DURATION_FOR_EXPOSURE, minDuration).apply();
+		edit().setMinDurationForExposure(minDuration).apply();
 	}
 
 	public int getAttenuationThresholdLow() {
@@ -166,11 +224,7 @@ public class AppConfigManager {
 	}
 
 	public void setAttenuationThresholds(int thresholdLow, int thresholdMedium) {
-		if (thresholdLow >= thresholdMedium) {
-			throw new IllegalArgumentException("Illegal Arguments: thresholdLow must be smaller than thresholdMedium");
-		}
-		sharedPrefs.edit().putInt(PREF_ATTENUATION_THRESHOLD_LOW, thresholdLow).apply();
-		sharedPrefs.edit().putInt(PREF_ATTENUATION_THRESHOLD_MEDIUM, thresholdMedium).apply();
+		edit().setAttenuationThresholds(thresholdLow, thresholdMedium).apply();
 	}
 
 	public float getAttenuationFactorLow() {
@@ -178,7 +232,7 @@ public class AppConfigManager {
 	}
 
 	public void setAttenuationFactorLow(float factor) {
-		sharedPrefs.edit().putFloat(PREF_ATTENUATION_FACTOR_LOW, factor).apply();
+		edit().setAttenuationFactorLow(factor).apply();
 	}
 
 	public float getAttenuationFactorMedium() {
@@ -186,7 +240,7 @@ public class AppConfigManager {
 	}
 
 	public void setAttenuationFactorMedium(float factor) {
-		sharedPrefs.edit().putFloat(PREF_ATTENUATION_FACTOR_MEDIUM, factor).apply();
+		edit().setAttenuationFactorMedium(factor).apply();
 	}
 
 	public int getNumberOfDaysToConsiderForExposure() {
@@ -194,7 +248,7 @@ public class AppConfigManager {
 	}
 
 	public void setNumberOfDaysToConsiderForExposure(int days) {
-		sharedPrefs.edit().putInt(PREF_NUMBER_OF_DAYS_TO_CONSIDER_FOR_EXPOSURE, days).apply();
+		edit().setNumberOfDaysToConsiderForExposure(days).apply();
 	}
 
 	public int getNumberOfDaysToKeepExposedDays() {
@@ -202,7 +256,7 @@ public class AppConfigManager {
 	}
 
 	public void setNumberOfDaysToKeepExposedDays(int days) {
-		sharedPrefs.edit().putInt(PREF_NUMBER_OF_DAYS_TO_KEEP_EXPOSED_DAYS, days).apply();
+		edit().setNumberOfDaysToKeepExposedDays(days).apply();
 	}
 
 	public long getLastSyncCallTime() {
@@ -221,8 +275,113 @@ public class AppConfigManager {
 		sharedPrefs.edit().putString(PREF_LAST_KEY_BUNDLE_TAG, tag).apply();
 	}
 
+	public long getNextBundleTime() {
+		return sharedPrefs.getLong(PREF_NEXT_BUNDLE_TIME, 0);
+	}
+
+	public void setNextBundleTime(long time) {
+		sharedPrefs.edit().putLong(PREF_NEXT_BUNDLE_TIME, time).apply();
+	}
+
+	public long getScheduledSyncInterval() {
+		return sharedPrefs.getLong(PREF_SCHEDULED_SYNC_INTERVAL, 0);
+	}
+
+	public void setScheduledSyncInterval(long interval) {
+		sharedPrefs.edit().putLong(PREF_SCHEDULED_SYNC_INTERVAL, interval).apply();
+	}
+
+	/**
+	 * @return a random value in [0, 1) that is chosen once per installation
+	 */
+	public float getSyncJitterFraction() {
+		if (!sharedPrefs.contains(PREF_SYNC_JITTER_FRACTION)) {
+			sharedPrefs.edit().putFloat(PREF_SYNC_JITTER_FRACTION, new Random().nextFloat()).apply();
+		}
+		return sharedPrefs.getFloat(PREF_SYNC_JITTER_FRACTION, 0);
+	}
+
+	/**
+	 * Forgets the jitter fraction, so the next {@link #getSyncJitterFraction()} chooses a new one like a new installation.
+	 */
+	void resetSyncJitterFraction() {
+		sharedPrefs.edit().remove(PREF_SYNC_JITTER_FRACTION).apply();
+	}
+
+	public long getSyncSpreadWindow() {
+		return sharedPrefs.getLong(PREF_SYNC_SPREAD_WINDOW, -1);
+	}
+
+	public void setSyncSpreadWindow(long spreadWindow) {
+		sharedPrefs.edit().putLong(PREF_SYNC_SPREAD_WINDOW, spreadWindow).apply();
+	}
+
+	public long getServerSyncSpreadWindow() {
+		return sharedPrefs.getLong(PREF_SERVER_SYNC_SPREAD_WINDOW, -1);
+	}
+
+	public void setServerSyncSpreadWindow(long spreadWindow) {
+		sharedPrefs.edit().putLong(PREF_SERVER_SYNC_SPREAD_WINDOW, spreadWindow).apply();
+	}
+
+	public long getSyncRetryBackoff() {
+		return sharedPrefs.getLong(PREF_SYNC_RETRY_BACKOFF, SyncScheduler.DEFAULT_RETRY_BACKOFF);
+	}
+
+	public void setSyncRetryBackoff(long initialBackoff) {
+		sharedPrefs.edit().putLong(PREF_SYNC_RETRY_BACKOFF, initialBackoff).apply();
+	}
+
+	public boolean getKeySubmissionRequiresCharging() {
+		return sharedPrefs.getBoolean(PREF_KEY_SUBMISSION_REQUIRES_CHARGING, false);
+	}
+
+	public boolean getKeySubmissionRequiresDeviceIdle() {
+		return sharedPrefs.getBoolean(PREF_KEY_SUBMISSION_REQUIRES_DEVICE_IDLE, false);
+	}
+
+	public void setKeySubmissionConstraints(boolean requiresCharging, boolean requiresDeviceIdle) {
+		sharedPrefs.edit()
+				.putBoolean(PREF_KEY_SUBMISSION_REQUIRES_CHARGING, requiresCharging)
+				.putBoolean(PREF_KEY_SUBMISSION_REQUIRES_DEVICE_IDLE, requiresDeviceIdle)
+				.apply();
+	}
+
+	public boolean getStrictServerTimeCheck() {
+		return sharedPrefs.getBoolean(PREF_STRICT_SERVER_TIME_CHECK, false);
+	}
+
+	public void setStrictServerTimeCheck(boolean strict) {
+		sharedPrefs.edit().putBoolean(PREF_STRICT_SERVER_TIME_CHECK, strict).apply();
+	}
+
+	public long getTrustedTimeBootTime() {
+		return sharedPrefs.getLong(PREF_TRUSTED_TIME_BOOT_TIME, 0);
+	}
+
+	public long getTrustedTimeSampleElapsedRealtime() {
+		return sharedPrefs.getLong(PREF_TRUSTED_TIME_SAMPLE_ELAPSED_REALTIME, -1);
+	}
+
+	public int getTrustedTimeBootCount() {
+		return sharedPrefs.getInt(PREF_TRUSTED_TIME_BOOT_COUNT, -1);
+	}
+
+	public long getTrustedTimeDeviceBootTime() {
+		return sharedPrefs.getLong(PREF_TRUSTED_TIME_DEVICE_BOOT_TIME, 0);
+	}
+
+	public void setTrustedTimeSample(long bootTime, long elapsedRealtime, int bootCount, long deviceBootTime) {
+		sharedPrefs.edit()
+				.putLong(PREF_TRUSTED_TIME_BOOT_TIME, bootTime)
+				.putLong(PREF_TRUSTED_TIME_SAMPLE_ELAPSED_REALTIME, elapsedRealtime)
+				.putInt(PREF_TRUSTED_TIME_BOOT_COUNT, bootCount)
+				.putLong(PREF_TRUSTED_TIME_DEVICE_BOOT_TIME, deviceBootTime)
+				.apply();
+	}
+
 	public void setDevHistory(boolean devHistory) {
-		sharedPrefs.edit().putBoolean(PREF_DEV_HISTORY, devHistory).apply();
+		edit().setDevHistory(devHistory).apply();
 	}
 
 	public boolean getDevHistory() {
@@ -238,11 +397,7 @@ public class AppConfigManager {
 	}
 
 	public void setWithFederationGateway(@Nullable Boolean withFederationGateway) {
-		if (withFederationGateway == null) {
-			sharedPrefs.edit().remove(PREF_WITH_FEDERATION_GATEWAY).apply();
-		} else {
-			sharedPrefs.edit().putBoolean(PREF_WITH_FEDERATION_GATEWAY, withFederationGateway).apply();
-		}
+		edit().setWithFederationGateway(withFederationGateway).apply();
 	}
 
 	public Boolean getWithFederationGateway() {
@@ -259,4 +414,90 @@ public class AppConfigManager {
 		return sharedPrefs.getInt(PREF_APP_VERSION_CODE, -1);
 	}
 
+	/**
+	 * Collects changes to the values of the {@link SdkConfig} and writes them with a single preferences edit. The cached
+	 * snapshot is dropped in the same step, so no reader sees a mix of old and new values.
+	 */
+	public class Editor {
+
+		private final SharedPreferences.Editor editor = sharedPrefs.edit();
+
+		private Editor() { }
+
+		public Editor setManualApplicationInfo(ApplicationInfo applicationInfo) {
+			editor.putString(PREF_APPLICATION, Json.toJson(applicationInfo));
+			return this;
+		}
+
+		public Editor setSyncsPerDay(int syncsPerDay) {
+			if (syncsPerDay > MAX_SYNCS_PER_DAY) {
+				syncsPerDay = MAX_SYNCS_PER_DAY;
+			} else if (syncsPerDay < MIN_SYNCS_PER_DAY) {
+				syncsPerDay = MIN_SYNCS_PER_DAY;
+			}
+			editor.putInt(PREF_NUMBER_OF_SYNCS_PER_DAY, syncsPerDay);
+			return this;
+		}
+
+		public Editor setAttenuationThresholds(int thresholdLow, int thresholdMedium) {
+			if (thresholdLow >= thresholdMedium) {
+				throw new IllegalArgumentException("Illegal Arguments: thresholdLow must be smaller than thresholdMedium");
+			}
+			editor.putInt(PREF_ATTENUATION_THRESHOLD_LOW, thresholdLow);
+			editor.putInt(PREF_ATTENUATION_THRESHOLD_MEDIUM, thresholdMedium);
+			return this;
+		}
+
+		public Editor setAttenuationFactorLow(float factor) {
+			editor.putFloat(PREF_ATTENUATION_FACTOR_LOW, factor);
+			return this;
+		}
+
+		public Editor setAttenuationFactorMedium(float factor) {
+			editor.putFloat(PREF_ATTENUATION_FACTOR_MEDIUM, factor);
+			return this;
+		}
+
+		public Editor setMinDurationForExposure(int minDuration) {
+			editor.putInt(PREF_MIN_DURATION_FOR_EXPOSURE, minDuration);
+			return this;
+		}
+
+		public Editor setNumberOfDaysToConsiderForExposure(int days) {
+			editor.putInt(PREF_NUMBER_OF_DAYS_TO_CONSIDER_FOR_EXPOSURE, days);
+			return this;
+		}
+
+		public Editor setNumberOfDaysToKeepExposedDays(int days) {
+			editor.putInt(PREF_NUMBER_OF_DAYS_TO_KEEP_EXPOSED_DAYS, days);
+			return this;
+		}
+
+		public Editor setDevHistory(boolean devHistory) {
+			editor.putBoolean(PREF_DEV_HISTORY, devHistory);
+			return this;
+		}
+
+		public Editor setWithFederationGateway(@Nullable Boolean withFederationGateway) {
+			if (withFederationGateway == null) {
+				editor.remove(PREF_WITH_FEDERATION_GATEWAY);
+			} else {
+				editor.putBoolean(PREF_WITH_FEDERATION_GATEWAY, withFederationGateway);
+			}
+			return this;
+		}
+
+		/**
+		 * Applies all changes in one write. The in-memory preferences are updated right away, the file is written in the
+		 * background.
+		 */
+		public void apply() {
+			synchronized (AppConfigManager.this) {
+				editor.apply();
+				config = null;
+			}
+		}
+
+	}
+
 }
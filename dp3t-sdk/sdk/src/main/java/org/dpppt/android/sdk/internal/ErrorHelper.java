@@ -50,6 +50,13 @@ public class ErrorHelper {
 			ErrorState.SYNC_ERROR_API_EXCEPTION
 	);
 
+	private static final Collection<ErrorState> RETRYABLE_SYNC_ERRORS = Arrays.asList(
+			ErrorState.SYNC_ERROR_NETWORK,
+			ErrorState.SYNC_ERROR_SSLTLS,
+			ErrorState.SYNC_ERROR_SERVER,
+			ErrorState.SYNC_ERROR_API_EXCEPTION
+	);
+
 	public static Collection<ErrorState> checkTracingErrorStatus(Context context, AppConfigManager appConfigManager) {
 		Set<ErrorState> errors = new HashSet<>();
 
@@ -116,6 +123,21 @@ public class ErrorHelper {
 		return isDelayableSyncError(getSyncErrorFromException(e, false));
 	}
 
+	/**
+	 * A retryable sync error is likely to go away when the sync is repeated shortly after. Signature mismatches and client
+	 * errors of the backend would occur again and are not retryable, even though they are delayable.
+	 */
+	public static boolean isRetryableSyncError(Exception e) {
+		if (!RETRYABLE_SYNC_ERRORS.contains(getSyncErrorFromException(e, false))) {
+			return false;
+		}
+		if (e instanceof StatusCodeException) {
+			int code = ((StatusCodeException) e).getCode();
+			return code >= 500 || code == 408 || code == 429;
+		}
+		return true;
+	}
+
 	public static ErrorState getSyncErrorFromException(Exception e, boolean setErrorCode) {
 		ErrorState syncError;
 		if (e instanceof ServerTimeOffsetException) {
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal
+
+import android.content.Context
+import android.os.SystemClock
+import androidx.work.*
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.dpppt.android.sdk.internal.backend.SyncErrorState
+import org.dpppt.android.sdk.internal.history.HistoryDatabase
+import org.dpppt.android.sdk.internal.history.HistoryEntry
+import org.dpppt.android.sdk.internal.history.HistoryEntryType
+import org.dpppt.android.sdk.internal.logger.Logger
+import org.dpppt.android.sdk.internal.nearby.GoogleExposureClient
+import org.dpppt.android.sdk.internal.storage.KeyFileStore
+import java.util.concurrent.TimeUnit
+
+/**
+ * Second stage of a sync: provides the key bundles that the SyncWorker downloaded and verified to the EN framework. The stage
+ * needs no network, and it is retried on its own, so a failing EN call does not require the bundles to be downloaded again.
+ */
+class KeySubmissionWorker(context: Context, workerParams: WorkerParameters) : CoroutineWorker(context, workerParams) {
+
+	companion object {
+
+		private const val TAG = "KeySubmissionWorker"
+		const val WORK_NAME = "org.dpppt.android.sdk.internal.KeySubmissionWorker"
+
+		private const val RETRY_BACKOFF = 60 * 1000L
+		private const val MAX_ATTEMPTS = 5
+
+		private val submissionMutex = Mutex()
+
+		@JvmStatic
+		fun enqueue(context: Context) {
+			val appConfigManager = AppConfigManager.getInstance(context)
+			val constraints = Constraints.Builder()
+				.setRequiresCharging(appConfigManager.keySubmissionRequiresCharging)
+				.setRequiresDeviceIdle(appConfigManager.keySubmissionRequiresDeviceIdle)
+				.build()
+			val workRequest = OneTimeWorkRequest.Builder(KeySubmissionWorker::class.java)
+				.setConstraints(constraints)
+				.setBackoffCriteria(BackoffPolicy.EXPONENTIAL, RETRY_BACKOFF, TimeUnit.MILLISECONDS)
+				.build()
+			// a running submission may have listed the pending files already, so the new run is appended
+			WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, workRequest)
+			Logger.d(TAG, "scheduled KeySubmissionWorker")
+		}
+
+		@JvmStatic
+		fun cancel(context: Context) {
+			WorkManager.getInstance(context).cancelUniqueWork(WORK_NAME)
+		}
+
+		@JvmStatic
+		fun hasPendingKeyFiles(context: Context): Boolean = KeyFileStore.getInstance(context).keyFiles.isNotEmpty()
+
+		/**
+		 * Provides all pending key bundles to the EN framework in one call and deletes them afterwards. If the call fails, the
+		 * bundles are kept for the next attempt.
+		 * @return the number of key bundles that were provided
+		 */
+		@JvmStatic
+		@Throws(Exception::class)
+		suspend fun submitPendingKeyFiles(context: Context): Int = submissionMutex.withLock {
+			val keyFileStore = KeyFileStore.getInstance(context)
+			val keyFiles = keyFileStore.keyFiles
+			if (keyFiles.isEmpty()) {
+				return@withLock 0
+			}
+			val bytes = keyFiles.sumOf { it.length() }
+			val start = SystemClock.elapsedRealtime()
+			try {
+				Logger.d(TAG, "provideDiagnosisKeys with " + keyFiles.size + " files, size " + bytes)
+				GoogleExposureClient.getInstance(context).provideDiagnosisKeys(keyFiles)
+			} catch (e: Exception) {
+				addHistoryEntry(context, keyFiles.size, bytes, SystemClock.elapsedRealtime() - start, false)
+				throw e
+			}
+			addHistoryEntry(context, keyFiles.size, bytes, SystemClock.elapsedRealtime() - start, true)
+			keyFiles.forEach { keyFileStore.remove(it) }
+			keyFiles.size
+		}
+
+		private fun addHistoryEntry(context: Context, files: Int, bytes: Long, duration: Long, successful: Boolean) {
+			HistoryDatabase.getInstance(context).addEntry(
+				HistoryEntry(
+					HistoryEntryType.KEY_SUBMISSION, files.toString() + " files, " + bytes + " bytes, " + duration + " ms",
+					successful, System.currentTimeMillis()
+				)
+			)
+		}
+	}
+
+	override suspend fun doWork(): Result {
+		Logger.d(TAG, "start KeySubmissionWorker")
+		val context = applicationContext
+		if (AppConfigManager.getInstance(context).devHistory) {
+			HistoryDatabase.getInstance(context)
+				.addEntry(HistoryEntry(HistoryEntryType.WORKER_STARTED, "KeySubmission", true, System.currentTimeMillis()))
+		}
+		if (!AppConfigManager.getInstance(context).isTracingEnabled) {
+			Logger.d(TAG, "tracing disabled, keeping pending key files")
+			return Result.success()
+		}
+		try {
+			submitPendingKeyFiles(context)
+		} catch (e: Exception) {
+			Logger.e(TAG, "KeySubmissionWorker finished with exception", e)
+			if (ErrorHelper.isRetryableSyncError(e) && runAttemptCount + 1 < MAX_ATTEMPTS) {
+				return Result.retry()
+			}
+			// the pending files are kept, the next sync enqueues another submission
+			SyncErrorState.getInstance().setSyncError(context, ErrorHelper.getSyncErrorFromException(e, true))
+			BroadcastHelper.sendUpdateAndErrorBroadcast(context)
+			return Result.failure()
+		}
+		Logger.d(TAG, "KeySubmissionWorker finished with success")
+		return Result.success()
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal;
+
+import androidx.annotation.Nullable;
+
+import org.dpppt.android.sdk.internal.nearby.MatchingParameters;
+import org.dpppt.android.sdk.models.ApplicationInfo;
+
+/**
+ * Immutable snapshot of the configuration that the app sets on the SDK. It is cached by {@link AppConfigManager} until one
+ * of its values changes, so a sync or a matching run reads all values from one consistent state and the application info is
+ * not parsed again on every access.
+ */
+public class SdkConfig {
+
+	private final ApplicationInfo applicationInfo;
+	private final MatchingParameters matchingParameters;
+	private final int numberOfDaysToKeepExposedDays;
+	private final int syncsPerDay;
+	private final Boolean withFederationGateway;
+	private final boolean devHistory;
+
+	SdkConfig(ApplicationInfo applicationInfo, MatchingParameters matchingParameters, int numberOfDaysToKeepExposedDays,
+			int syncsPerDay, @Nullable Boolean withFederationGateway, boolean devHistory) {
+		this.applicationInfo = applicationInfo;
+		this.matchingParameters = matchingParameters;
+		this.numberOfDaysToKeepExposedDays = numberOfDaysToKeepExposedDays;
+		this.syncsPerDay = syncsPerDay;
+		this.withFederationGateway = withFederationGateway;
+		this.devHistory = devHistory;
+	}
+
+	public ApplicationInfo getApplicationInfo() {
+		return applicationInfo;
+	}
+
+	public MatchingParameters getMatchingParameters() {
+		return matchingParameters;
+	}
+
+	public int getNumberOfDaysToKeepExposedDays() {
+		return numberOfDaysToKeepExposedDays;
+	}
+
+	public int getSyncsPerDay() {
+		return syncsPerDay;
+	}
+
+	@Nullable
+	public Boolean getWithFederationGateway() {
+		return withFederationGateway;
+	}
+
+	public boolean getDevHistory() {
+		return devHistory;
+	}
+
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Scope of the background work that the SDK starts on its own, e.g. runs shared by several callers. A failing child does not
+ * cancel the others.
+ */
+object SdkScope : CoroutineScope {
+
+	override val coroutineContext: CoroutineContext = SupervisorJob() + Dispatchers.IO
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Runs at most one instance of a task at a time. Callers that arrive while a run is in flight wait for that run and receive
+ * its result or exception. Because such a run may have started before their request, at most one follow-up run is queued,
+ * which is started in the background as soon as the current run finishes.
+ * <p>
+ * The runs belong to the given scope, not to the caller that started them. A caller that is cancelled only stops waiting,
+ * the run continues for the other callers.
+ */
+class SingleFlight<T>(private val scope: CoroutineScope = SdkScope) {
+
+	private val lock = Any()
+	private var inFlight: CompletableDeferred<T>? = null
+	private var followUp: (suspend () -> T)? = null
+
+	private val runs = AtomicLong()
+	private val contendedCalls = AtomicLong()
+	private val coalescedCalls = AtomicLong()
+
+	/** number of runs that were actually executed, including follow-up runs */
+	val runCount: Long
+		get() = runs.get()
+
+	/** number of calls that found a run in flight and attached to it */
+	val contendedCount: Long
+		get() = contendedCalls.get()
+
+	/** number of calls that were merged into an already queued follow-up run */
+	val coalescedCount: Long
+		get() = coalescedCalls.get()
+
+	@Throws(Exception::class)
+	suspend fun runOrAwait(task: suspend () -> T): T {
+		val deferred = synchronized(lock) {
+			val current = inFlight
+			if (current != null) {
+				contendedCalls.incrementAndGet()
+				if (followUp != null) {
+					coalescedCalls.incrementAndGet()
+				}
+				followUp = task
+				current
+			} else {
+				CompletableDeferred<T>().also {
+					inFlight = it
+					launchRun(it, task)
+				}
+			}
+		}
+		// cancelling this caller cancels the await, not the shared run
+		return deferred.await()
+	}
+
+	/**
+	 * Waits until no run is in flight and no follow-up is queued, e.g. so tests do not leak runs into each other.
+	 */
+	suspend fun awaitIdle() {
+		while (true) {
+			val current = synchronized(lock) { inFlight } ?: return
+			current.join()
+		}
+	}
+
+	fun awaitIdleBlocking() = runBlocking { awaitIdle() }
+
+	@Throws(Exception::class)
+	fun runOrAwaitBlocking(task: suspend () -> T): T = runBlocking { runOrAwait(task) }
+
+	private fun launchRun(deferred: CompletableDeferred<T>, task: suspend () -> T) {
+		scope.launch {
+			runTask(deferred, task)
+		}
+	}
+
+	private suspend fun runTask(deferred: CompletableDeferred<T>, task: suspend () -> T) {
+		// a task that aborts itself with a CancellationException is not repeated, the callers receive the abort as its outcome
+		val result = runOnce(task)
+
+		// hand over to the follow-up run before completing, so no caller can attach to a finished run
+		synchronized(lock) {
+			val followUpTask = followUp
+			if (followUpTask != null) {
+				followUp = null
+				launchRun(CompletableDeferred<T>().also { inFlight = it }, followUpTask)
+			} else {
+				inFlight = null
+			}
+		}
+
+		result.fold({ deferred.complete(it) }, { deferred.completeExceptionally(it) })
+	}
+
+	private suspend fun runOnce(task: suspend () -> T): Result<T> {
+		runs.incrementAndGet()
+		return try {
+			Result.success(task())
+		} catch (e: Throwable) {
+			// also a cancellation of the scope, the waiting callers are then cancelled with it
+			Result.failure(e)
+		}
+	}
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal
+
+import android.content.Context
+import androidx.work.*
+import okhttp3.CacheControl
+import okhttp3.Headers
+import org.dpppt.android.sdk.BuildConfig
+import org.dpppt.android.sdk.internal.backend.SyncErrorState
+import org.dpppt.android.sdk.internal.logger.Logger
+import java.util.concurrent.TimeUnit
+
+/**
+ * Plans the SyncWorker runs. After every sync the worker is planned anew, its next run starts exactly at the next planned
+ * sync and repeats with the sync interval (derived from syncsPerDay) from there, so no wakeups are wasted on syncs that the
+ * rate limit would skip anyway. The publish hint of the bucket backend (max-age or Expires of the last response) moves the
+ * next run to the time new keys are available, syncs requested by the app only wait for the sync interval. A per installation
+ * jitter spreads the syncs for a new bundle across the spread window, and the syncs planned by the interval alone across the
+ * sync interval.
+ */
+object SyncScheduler {
+
+	private const val TAG = "SyncScheduler"
+
+	private const val CALIBRATION_SYNC_INTERVAL = 5 * 60 * 1000L
+	private const val MAX_SERVER_HINT_DELAY = 24 * 60 * 60 * 1000L
+
+	const val DEFAULT_RETRY_BACKOFF = 5 * 60 * 1000L
+
+	/** optional header of the bucket response, the window in seconds across which the syncs for a new bundle are spread */
+	const val SYNC_SPREAD_WINDOW_HEADER = "x-sync-spread-window"
+
+	@JvmStatic
+	fun getSyncInterval(context: Context): Long {
+		return if (BuildConfig.FLAVOR == "calibration") {
+			CALIBRATION_SYNC_INTERVAL
+		} else {
+			val syncsPerDay = AppConfigManager.getInstance(context).syncsPerDay
+			24 * 60 * 60 * 1000L / syncsPerDay
+		}
+	}
+
+	/**
+	 * @return the time of the next planned sync, which is never before the earliest time allowed by the rate limit
+	 */
+	@JvmStatic
+	fun getNextSyncTime(context: Context): Long {
+		val appConfigManager = AppConfigManager.getInstance(context)
+		return computeNextSyncTime(
+			appConfigManager.lastSyncCallTime, getSyncInterval(context), appConfigManager.nextBundleTime,
+			appConfigManager.syncJitterFraction, getSpreadWindow(context)
+		)
+	}
+
+	/**
+	 * Syncs for a newly published bundle are delayed by this offset, so not all installations request the bundle as soon as it is
+	 * published. The offset is a stable fraction of the spread window, which is the window announced by the backend, the window
+	 * configured in the SDK or the sync interval, in this order.
+	 */
+	@JvmStatic
+	fun getJitterOffset(context: Context): Long {
+		val appConfigManager = AppConfigManager.getInstance(context)
+		return computeJitterOffset(appConfigManager.syncJitterFraction, getSpreadWindow(context), getSyncInterval(context))
+	}
+
+	private fun getSpreadWindow(context: Context): Long {
+		val appConfigManager = AppConfigManager.getInstance(context)
+		return when {
+			appConfigManager.serverSyncSpreadWindow >= 0 -> appConfigManager.serverSyncSpreadWindow
+			appConfigManager.syncSpreadWindow >= 0 -> appConfigManager.syncSpreadWindow
+			else -> getSyncInterval(context)
+		}
+	}
+
+	@JvmStatic
+	fun computeJitterOffset(jitterFraction: Float, spreadWindow: Long, syncInterval: Long): Long {
+		// a sync must never be delayed by more than one sync interval
+		return (jitterFraction * spreadWindow.coerceIn(0, syncInterval)).toLong()
+	}
+
+	/**
+	 * With a publish hint, the next sync is the sync for the new bundle, delayed by the jitter offset within the spread window.
+	 * Without a hint it is moved to the installation's own offset within the sync interval, counted from the epoch, so
+	 * installations that synced at the same time do not stay in step.
+	 */
+	@JvmStatic
+	fun computeNextSyncTime(
+		lastSyncCallTime: Long, syncInterval: Long, nextBundleTime: Long, jitterFraction: Float, spreadWindow: Long
+	): Long {
+		val earliestSyncTime = computeEarliestSyncTime(
+			lastSyncCallTime, syncInterval, nextBundleTime, computeJitterOffset(jitterFraction, spreadWindow, syncInterval)
+		)
+		if (nextBundleTime > 0) {
+			return earliestSyncTime
+		}
+		return alignToOffset(earliestSyncTime, syncInterval, computeJitterOffset(jitterFraction, syncInterval, syncInterval))
+	}
+
+	/**
+	 * @return the earliest time at which the next sync is not skipped, pass 0 as next bundle time for the rate limit alone
+	 */
+	@JvmStatic
+	fun computeEarliestSyncTime(lastSyncCallTime: Long, syncInterval: Long, nextBundleTime: Long, jitterOffset: Long): Long {
+		// no tolerance is needed for periodic runs: WorkManager starts the next period when a run ended, which is after the
+		// start time of the run that is stored as last sync call time
+		val dueTime = lastSyncCallTime + syncInterval
+		if (nextBundleTime <= 0) {
+			return dueTime
+		}
+		// never trust a hint that would delay the sync by more than a day
+		val bundleSyncTime = (nextBundleTime + jitterOffset).coerceAtMost(lastSyncCallTime + MAX_SERVER_HINT_DELAY)
+		return maxOf(dueTime, bundleSyncTime)
+	}
+
+	/**
+	 * @return the first time at or after the given time that lies the offset after a multiple of the sync interval
+	 */
+	private fun alignToOffset(time: Long, syncInterval: Long, offset: Long): Long {
+		val phase = ((time - offset) % syncInterval + syncInterval) % syncInterval
+		return if (phase == 0L) time else time + syncInterval - phase
+	}
+
+	/**
+	 * @return the delay of the next SyncWorker run, the exact time until the next planned sync
+	 */
+	@JvmStatic
+	fun getInitialDelay(context: Context, currentTime: Long): Long {
+		return (getNextSyncTime(context) - currentTime).coerceAtLeast(0)
+	}
+
+	/**
+	 * @param scheduled whether the sync is a run of the SyncWorker, only those wait for the publish hint of the backend, a sync
+	 * requested by the app is only subject to the rate limit
+	 */
+	@JvmStatic
+	fun isSyncDue(context: Context, currentTime: Long, scheduled: Boolean): Boolean {
+		val appConfigManager = AppConfigManager.getInstance(context)
+		val lastSyncCallTime = appConfigManager.lastSyncCallTime
+		val nextBundleTime = if (scheduled) appConfigManager.nextBundleTime else 0L
+		val earliestSyncTime =
+			computeEarliestSyncTime(lastSyncCallTime, getSyncInterval(context), nextBundleTime, getJitterOffset(context))
+		// a last sync in the future means the system time was moved backwards
+		return lastSyncCallTime > currentTime || currentTime >= earliestSyncTime
+	}
+
+	/**
+	 * Stores the time until which the bucket backend will not publish new keys, as announced by the caching headers of its
+	 * response. The durations are taken relative to the Date header, so a skewed device clock does not shift the hint.
+	 */
+	@JvmStatic
+	fun updateServerHint(context: Context, headers: Headers, currentTime: Long) {
+		val cacheControl = CacheControl.parse(headers)
+		val age = headers["Age"]?.toLongOrNull() ?: 0L
+		val validFor = when {
+			cacheControl.noCache() || cacheControl.noStore() -> 0L
+			cacheControl.maxAgeSeconds() >= 0 -> TimeUnit.SECONDS.toMillis((cacheControl.maxAgeSeconds() - age).coerceAtLeast(0))
+			else -> {
+				val expires = headers.getDate("Expires")
+				val date = headers.getDate("Date")
+				if (expires != null && date != null) (expires.time - date.time).coerceAtLeast(0) else 0L
+			}
+		}
+		val appConfigManager = AppConfigManager.getInstance(context)
+		appConfigManager.nextBundleTime = if (validFor > 0) currentTime + validFor else 0L
+		appConfigManager.serverSyncSpreadWindow =
+			headers[SYNC_SPREAD_WINDOW_HEADER]?.toLongOrNull()?.let { TimeUnit.SECONDS.toMillis(it) } ?: -1L
+	}
+
+	/**
+	 * Sets the delay before the first retry of a sync that failed with a retryable error. Each further retry doubles the delay.
+	 */
+	@JvmStatic
+	fun setRetryBackoff(context: Context, initialBackoffMillis: Long) {
+		require(initialBackoffMillis >= WorkRequest.MIN_BACKOFF_MILLIS) { "The retry backoff must be at least 10 seconds" }
+		val appConfigManager = AppConfigManager.getInstance(context)
+		appConfigManager.syncRetryBackoff = initialBackoffMillis
+		if (appConfigManager.isTracingEnabled) {
+			schedule(context, true)
+		}
+	}
+
+	/**
+	 * @return the delay WorkManager applies before retrying the current run, or -1 if the run should not be retried because the
+	 * retries would go on for longer than the sync error grace period
+	 */
+	@JvmStatic
+	fun getRetryDelay(context: Context, runAttemptCount: Int): Long {
+		val initialBackoff = AppConfigManager.getInstance(context).syncRetryBackoff
+		return computeRetryDelay(initialBackoff, runAttemptCount, SyncErrorState.getInstance().syncErrorGracePeriod)
+	}
+
+	@JvmStatic
+	fun computeRetryDelay(initialBackoff: Long, runAttemptCount: Int, gracePeriod: Long): Long {
+		// WorkManager delays the n-th retry by initialBackoff * 2^(n-1), capped at MAX_BACKOFF_MILLIS
+		var accumulatedDelay = 0L
+		var retryDelay = 0L
+		for (attempt in 0..runAttemptCount) {
+			retryDelay = (initialBackoff shl attempt.coerceAtMost(30)).coerceAtMost(WorkRequest.MAX_BACKOFF_MILLIS)
+			accumulatedDelay += retryDelay
+			if (accumulatedDelay > gracePeriod) {
+				return -1
+			}
+		}
+		return retryDelay
+	}
+
+	@JvmStatic
+	@JvmOverloads
+	fun schedule(context: Context, replace: Boolean = false) {
+		val appConfigManager = AppConfigManager.getInstance(context)
+		val syncInterval = getSyncInterval(context)
+		val repeatInterval = syncInterval.coerceAtLeast(PeriodicWorkRequest.MIN_PERIODIC_INTERVAL_MILLIS)
+		// keep a running schedule, unless it was planned for a different interval
+		val policy = if (!replace && appConfigManager.scheduledSyncInterval == repeatInterval) {
+			ExistingPeriodicWorkPolicy.KEEP
+		} else {
+			ExistingPeriodicWorkPolicy.REPLACE
+		}
+		val initialDelay = getInitialDelay(context, TrustedTime.getInstance(context).currentTimeMillis())
+
+		val constraints = Constraints.Builder()
+			.setRequiredNetworkType(NetworkType.CONNECTED)
+			.build()
+		val periodicWorkRequest = PeriodicWorkRequest.Builder(SyncWorker::class.java, repeatInterval, TimeUnit.MILLISECONDS)
+			.setInitialDelay(initialDelay, TimeUnit.MILLISECONDS)
+			.setConstraints(constraints)
+			.setBackoffCriteria(BackoffPolicy.EXPONENTIAL, appConfigManager.syncRetryBackoff, TimeUnit.MILLISECONDS)
+			.addTag(SyncWorker.WORK_TAG)
+			.build()
+		WorkManager.getInstance(context).enqueueUniquePeriodicWork(SyncWorker.WORK_NAME, policy, periodicWorkRequest)
+		appConfigManager.scheduledSyncInterval = repeatInterval
+		Logger.d(TAG, "scheduled SyncWorker (" + policy + ") every " + repeatInterval / 60000 + " min, next in " +
+				initialDelay / 60000 + " min")
+	}
+
+	/**
+	 * Plans the next SyncWorker run for the state left by the sync that just finished. Replacing the periodic work also ends a
+	 * SyncWorker run that is still waiting for this sync, which is fine because the sync belongs to the sync coordinator.
+	 */
+	@JvmStatic
+	fun reschedule(context: Context) {
+		schedule(context, true)
+	}
+
+	@JvmStatic
+	fun cancel(context: Context) {
+		WorkManager.getInstance(context).cancelUniqueWork(SyncWorker.WORK_NAME)
+		KeySubmissionWorker.cancel(context)
+		AppConfigManager.getInstance(context).scheduledSyncInterval = 0
+	}
+
+}
@@ -14,23 +14,24 @@ import androidx.work.*
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.withContext
-import org.dpppt.android.sdk.BuildConfig
 import org.dpppt.android.sdk.DP3T
+import org.dpppt.android.sdk.SyncResult
+import org.dpppt.android.sdk.TracingStatus.ErrorState
 import org.dpppt.android.sdk.internal.backend.BackendBucketRepository
+import org.dpppt.android.sdk.internal.backend.PartialKeyBundleDownload
 import org.dpppt.android.sdk.internal.backend.SyncErrorState
 import org.dpppt.android.sdk.internal.history.HistoryDatabase
 import org.dpppt.android.sdk.internal.history.HistoryEntry
 import org.dpppt.android.sdk.internal.history.HistoryEntryType
 import org.dpppt.android.sdk.internal.logger.Logger
+import org.dpppt.android.sdk.internal.storage.KeyFileStore
+import org.dpppt.android.sdk.util.JwsVerifier
 import org.dpppt.android.sdk.internal.nearby.GaenStateCache
 import org.dpppt.android.sdk.internal.nearby.GaenStateHelper
-import org.dpppt.android.sdk.internal.nearby.GoogleExposureClient.Companion.getInstance
-import java.io.File
+import java.io.IOException
 import java.security.PublicKey
 import java.util.*
 import java.util.concurrent.CancellationException
-import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicBoolean
 
 class SyncWorker(context: Context, workerParams: WorkerParameters) : CoroutineWorker(context, workerParams) {
 
@@ -43,33 +44,30 @@ class SyncWorker(context: Context, workerParams: WorkerParameters) : CoroutineWo
 
 		const val KEY_BUNDLE_TAG_HEADER = "x-key-bundle-tag"
 
-		private var bucketSignaturePublicKey: PublicKey? = null
+		// built once, so its cache of verified signatures is reused by all syncs. The backend signs with ES256, so the built-in
+		// verifier suffices and jjwt does not need to be loaded by the worker
+		private var bucketSignatureVerifier: JwsVerifier? = null
 
-		private val isSyncInProgress = AtomicBoolean(false)
+		/**
+		 * Coordinates syncs triggered by the SyncWorker, DP3T.sync() and the SystemTimeBroadcastReceiver, its counters show how
+		 * often these calls overlapped.
+		 */
+		@JvmStatic
+		val syncCoordinator = SingleFlight<SyncResult>()
 
 		@JvmStatic
 		fun startSyncWorker(context: Context) {
-			val constraints = Constraints.Builder()
-				.setRequiredNetworkType(NetworkType.CONNECTED)
-				.build()
-			val periodicWorkRequest = PeriodicWorkRequest.Builder(SyncWorker::class.java, 120, TimeUnit.MINUTES)
-				.setConstraints(constraints)
-				.addTag(WORK_TAG)
-				.build()
-			val workManager = WorkManager.getInstance(context)
-			workManager.enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, periodicWorkRequest)
-			Logger.d(TAG, "scheduled SyncWorker")
+			SyncScheduler.schedule(context)
 		}
 
 		@JvmStatic
 		fun stopSyncWorker(context: Context) {
-			val workManager = WorkManager.getInstance(context)
-			workManager.cancelUniqueWork(WORK_NAME)
+			SyncScheduler.cancel(context)
 		}
 
 		@JvmStatic
 		fun setBucketSignaturePublicKey(publicKey: PublicKey?) {
-			bucketSignaturePublicKey = publicKey
+			bucketSignatureVerifier = publicKey?.let { JwsVerifier(it, JwsVerifier.Engine.BUILT_IN) }
 		}
 	}
 
@@ -80,97 +78,156 @@ class SyncWorker(context: Context, workerParams: WorkerParameters) : CoroutineWo
 			HistoryDatabase.getInstance(context)
 				.addEntry(HistoryEntry(HistoryEntryType.WORKER_STARTED, "Sync", true, System.currentTimeMillis()))
 		}
-		try {
-			SyncImpl(context).doSync()
+		val syncResult = try {
+			// the downloaded key bundles are provided by the KeySubmissionWorker, which does not depend on the network
+			SyncImpl(context, submitInline = false, scheduled = true).doSync()
 		} catch (e: Exception) {
 			Logger.d(TAG, "SyncWorker finished with exception " + e.message)
-			return Result.failure()
+			return if (ErrorHelper.isRetryableSyncError(e)) retryOrGiveUp(context) else Result.failure()
+		}
+		if (syncResult.status == SyncResult.Status.DELAYED_ERROR) {
+			Logger.d(TAG, "SyncWorker finished with delayed error " + syncResult)
+			return if (syncResult.isRetryable) retryOrGiveUp(context) else Result.failure()
 		}
 		Logger.d(TAG, "SyncWorker finished with success")
 		return Result.success()
 	}
 
+	private fun retryOrGiveUp(context: Context): Result {
+		val retryDelay = SyncScheduler.getRetryDelay(context, runAttemptCount)
+		val attempt = runAttemptCount + 1
+		val status = if (retryDelay >= 0) {
+			"attempt " + attempt + ", retry in " + retryDelay / 1000 + "s"
+		} else {
+			"attempt " + attempt + ", giving up"
+		}
+		Logger.d(TAG, status)
+		HistoryDatabase.getInstance(context)
+			.addEntry(HistoryEntry(HistoryEntryType.SYNC_RETRY, status, retryDelay >= 0, System.currentTimeMillis()))
+		return if (retryDelay >= 0) Result.retry() else Result.failure()
+	}
+
 	class SyncImpl @JvmOverloads constructor(
 		private val context: Context,
-		private val currentTime: Long = System.currentTimeMillis()
+		private val currentTime: Long = TrustedTime.getInstance(context).currentTimeMillis(),
+		private val submitInline: Boolean = true,
+		private val scheduled: Boolean = false
 	) {
 
 		@Throws(Exception::class)
-		fun doSyncBlocking() {
-			runBlocking {
-				doSync()
-			}
+		fun doSyncBlocking(): SyncResult = runBlocking {
+			doSync()
 		}
 
+		/**
+		 * Runs a sync, or waits for the sync that is already in progress and returns its outcome. In the latter case a
+		 * follow-up sync is queued, see [SingleFlight].
+		 */
 		@Throws(Exception::class)
-		suspend fun doSync() {
-			if (!isSyncInProgress.compareAndSet(false, true)) {
-				return
-			}
+		suspend fun doSync(): SyncResult = syncCoordinator.runOrAwait { doSyncOnce() }
+
+		@Throws(Exception::class)
+		private suspend fun doSyncOnce(): SyncResult {
+			GaenStateHelper.invalidateGaenAvailability(context)
+			GaenStateHelper.invalidateGaenEnabled(context)
 			try {
-				GaenStateHelper.invalidateGaenAvailability(context)
-				GaenStateHelper.invalidateGaenEnabled(context)
-				try {
-					if (DP3T.isTracingEnabled(context) && java.lang.Boolean.FALSE != GaenStateCache.isGaenEnabled()) {
-						val syncWasExecuted = doSyncInternal(context)
-						if (!syncWasExecuted) {
-							Logger.i(TAG, "sync skipped due to rate limit")
-							return
-						}
-						Logger.i(TAG, "synced")
+				var syncResult = SyncResult.of(SyncResult.Status.NOT_ACTIVE)
+				if (DP3T.isTracingEnabled(context) && java.lang.Boolean.FALSE != GaenStateCache.isGaenEnabled()) {
+					syncResult = doSyncInternal(context)
+					if (syncResult.status == SyncResult.Status.SKIPPED_RATE_LIMIT) {
+						Logger.i(TAG, "sync skipped due to rate limit")
+						return syncResult
 					}
-					SyncErrorState.getInstance().setSyncError(context, null)
+					Logger.i(TAG, "synced")
+				}
+				// the sync succeeded, but a wrong device clock still breaks the key generation of the EN framework
+				val timingError = if (TrustedTime.getInstance(context).isDeviceClockOff) ErrorState.SYNC_ERROR_TIMING else null
+				SyncErrorState.getInstance().setSyncError(context, timingError)
+				BroadcastHelper.sendUpdateAndErrorBroadcast(context)
+				return syncResult
+			} catch (e: Exception) {
+				if (e is DelayableCancellationException) {
+					//ignore delayable cancellation exception
+					Logger.e(TAG, "ignoring DelayableCancellationException", e)
+					return SyncResult.error(ErrorHelper.getSyncErrorFromException(e, false), true, ErrorHelper.isRetryableSyncError(e))
+				} else {
+					Logger.e(TAG, "sync", e)
+					val syncError = ErrorHelper.getSyncErrorFromException(e, true)
+					SyncErrorState.getInstance().setSyncError(context, syncError)
 					BroadcastHelper.sendUpdateAndErrorBroadcast(context)
-				} catch (e: Exception) {
-					if (e is DelayableCancellationException) {
-						//ignore delayable cancellation exception
-						Logger.e(TAG, "ignoring DelayableCancellationException", e)
-					} else {
-						Logger.e(TAG, "sync", e)
-						val syncError = ErrorHelper.getSyncErrorFromException(e, true)
-						SyncErrorState.getInstance().setSyncError(context, syncError)
-						BroadcastHelper.sendUpdateAndErrorBroadcast(context)
-						throw e
-					}
+					throw e
 				}
-			} finally {
-				isSyncInProgress.set(false)
 			}
 		}
 
 		@Throws(Exception::class)
-		private suspend fun doSyncInternal(context: Context): Boolean = withContext(Dispatchers.IO) {
+		private suspend fun doSyncInternal(context: Context): SyncResult = withContext(Dispatchers.IO) {
 			val appConfigManager = AppConfigManager.getInstance(context)
-			val appConfig = appConfigManager.appConfig
-			val backendBucketRepository = BackendBucketRepository(context, appConfig.bucketBaseUrl, bucketSignaturePublicKey)
-			val googleExposureClient = getInstance(context)
-			if (appConfigManager.lastSyncCallTime <= currentTime - syncInterval || appConfigManager.lastSyncCallTime > currentTime) {
+			// one snapshot for the whole sync, so a concurrent change of the configuration does not mix old and new values
+			val config = appConfigManager.config
+			val backendBucketRepository =
+				BackendBucketRepository(context, config.applicationInfo.bucketBaseUrl, bucketSignatureVerifier)
+			// keyed by the tag of the last successful sync, so retries of the same sync continue the interrupted download
+			val keyFileStore = KeyFileStore.getInstance(context)
+			val partialDownload =
+				PartialKeyBundleDownload(keyFileStore.directory, KEYFILE_PREFIX + appConfigManager.lastKeyBundleTag)
+			if (SyncScheduler.isSyncDue(context, currentTime, scheduled)) {
+				var syncResult: SyncResult
 				try {
 					Logger.d(TAG, "loading exposees")
-					val withFederationGateway = appConfigManager.withFederationGateway
-					val result =
-						backendBucketRepository.getGaenExposees(appConfigManager.lastKeyBundleTag, withFederationGateway)
+					val withFederationGateway = config.withFederationGateway
+					val result = backendBucketRepository.getGaenExposees(
+						appConfigManager.lastKeyBundleTag, withFederationGateway, partialDownload
+					)
 					if (result.code() != 204) {
-						val file = File(context.cacheDir, KEYFILE_PREFIX + appConfigManager.lastKeyBundleTag + ".zip")
-						file.outputStream().use { fos ->
-							result.body()!!.byteStream().copyTo(fos)
+						// the signature is verified while streaming, so the body must be read to the end before the file can
+						// be queued for the EN framework
+						try {
+							// evict old files and fail early instead of running out of space while writing
+							keyFileStore.ensureSpace(result.body()?.contentLength() ?: -1) { partialDownload.owns(it) }
+						} catch (e: IOException) {
+							result.body()?.close()
+							throw e
 						}
-						Logger.d(TAG, "provideDiagnosisKeys with size " + file.length())
-						val fileList = listOf(file)
-						appConfigManager.setLastSyncCallTime(currentTime)
-						googleExposureClient.provideDiagnosisKeys(fileList)
+						val file = partialDownload.complete(
+							result, keyFileStore.getKeyFile(KEYFILE_PREFIX + appConfigManager.lastKeyBundleTag)
+						)
+						Logger.d(TAG, "downloaded key file with size " + file.length())
+						syncResult = SyncResult.synced(file.length())
 					} else {
-						appConfigManager.setLastSyncCallTime(currentTime)
+						partialDownload.discard()
+						syncResult = SyncResult.of(SyncResult.Status.NO_NEW_KEYS)
 					}
+					// the bundle is persisted, so the next sync continues after it even if the submission fails
+					appConfigManager.setLastSyncCallTime(currentTime)
 					appConfigManager.lastKeyBundleTag = result.headers()[KEY_BUNDLE_TAG_HEADER]
+					SyncScheduler.updateServerHint(context, result.headers(), currentTime)
+					if (submitInline) {
+						try {
+							KeySubmissionWorker.submitPendingKeyFiles(context)
+						} catch (e: Exception) {
+							// the download succeeded and the bundle is kept, so only the submission is repeated, the failed
+							// attempt is recorded as a KEY_SUBMISSION history entry
+							Logger.e(TAG, "error while submitting key files, retrying in the background", e)
+							KeySubmissionWorker.enqueue(context)
+						}
+					} else if (KeySubmissionWorker.hasPendingKeyFiles(context)) {
+						KeySubmissionWorker.enqueue(context)
+					}
 					appConfigManager.lastSyncDate = currentTime
 					addHistoryEntry(false, false)
+					// the periodic runs would otherwise keep the phase of the old plan, which can be up to one interval late
+					SyncScheduler.reschedule(context)
 				} catch (e: Exception) {
-					if (appConfigManager.devHistory) {
+					if (config.devHistory) {
 						HistoryDatabase.getInstance(context)
 							.addEntry(HistoryEntry(HistoryEntryType.SYNC, e.stackTraceToString(), false, currentTime))
 					}
 					Logger.e(TAG, "error while syncing new keys", e)
+					if (KeySubmissionWorker.hasPendingKeyFiles(context)) {
+						// retry the submission of the bundles that were downloaded already
+						KeySubmissionWorker.enqueue(context)
+					}
 					val lastSuccessfulSyncTime = appConfigManager.lastSyncDate
 					val isDelayWithinGracePeriod =
 						lastSuccessfulSyncTime > currentTime - SyncErrorState.getInstance().syncErrorGracePeriod
@@ -180,26 +237,22 @@ class SyncWorker(context: Context, workerParams: WorkerParameters) : CoroutineWo
 							Logger.e(TAG, "throwing DelayableCancellationException")
 							throw DelayableCancellationException()
 						}
+						syncResult = SyncResult.error(
+							ErrorHelper.getSyncErrorFromException(e, false), true, ErrorHelper.isRetryableSyncError(e)
+						)
 					} else {
 						addHistoryEntry(true, false)
 						throw e
 					}
 				}
-				cleanupOldKeyFiles(context)
-				return@withContext true
+				// part files of other tags can not be resumed anymore
+				keyFileStore.cleanup({ !partialDownload.owns(it) }, { partialDownload.owns(it) })
+				return@withContext syncResult
 			} else {
-				return@withContext false
+				return@withContext SyncResult.of(SyncResult.Status.SKIPPED_RATE_LIMIT)
 			}
 		}
 
-		private val syncInterval: Long
-			get() = if (BuildConfig.FLAVOR == "calibration") {
-				5 * 60 * 1000L
-			} else {
-				val syncsPerDay = AppConfigManager.getInstance(context).syncsPerDay
-				24 * 60 * 60 * 1000L / syncsPerDay
-			}
-
 		private fun addHistoryEntry(instantError: Boolean, delayedError: Boolean) {
 			val base = 'A'.toInt()
 			val historyStatus: String =
@@ -213,15 +266,5 @@ class SyncWorker(context: Context, workerParams: WorkerParameters) : CoroutineWo
 				)
 			)
 		}
-
-		private fun cleanupOldKeyFiles(context: Context) {
-			context.cacheDir.listFiles()?.forEach { file ->
-				if (file.name.startsWith(KEYFILE_PREFIX)) {
-					if (!file.delete()) {
-						Logger.w(TAG, "Unable to delete file " + file.name)
-					}
-				}
-			}
-		}
 	}
-}
\ No newline at end of file
+}
@@ -23,14 +23,18 @@ class SystemTimeBroadcastReceiver : BroadcastReceiver() {
 		Logger.w(TAG, intent.action)
 
 		val syncError = SyncErrorState.getInstance().getSyncError(context)
-		val appConfigManager = AppConfigManager.getInstance(context)
+		if (syncError != ErrorState.SYNC_ERROR_TIMING) return
 
-		if (syncError == ErrorState.SYNC_ERROR_TIMING && appConfigManager.lastSyncCallTime != -1L) {
-			Logger.w(TAG, "invalidating sync")
+		// the server time is tracked independently of the device clock, so no request is needed to check the new time
+		if (TrustedTime.getInstance(context).isDeviceClockOff) return
 
-			appConfigManager.lastSyncCallTime = -1
-			appConfigManager.lastSyncDate = -1
+		Logger.i(TAG, "device clock corrected")
+		SyncErrorState.getInstance().setSyncError(context, null)
+		BroadcastHelper.sendUpdateAndErrorBroadcast(context)
 
+		if (AppConfigManager.getInstance(context).strictServerTimeCheck) {
+			// the rate limit is based on the trusted time and a rejected sync does not count, so the last successful sync
+			// does not have to be invalidated
 			GlobalScope.launch(Dispatchers.IO) {
 				try {
 					SyncImpl(context).doSync()
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.provider.Settings;
+
+import org.dpppt.android.sdk.internal.logger.Logger;
+
+/**
+ * Estimate of the current time, derived from the Date and Age headers of the backend responses. The estimate is kept relative
+ * to the monotonic elapsed realtime, so changes of the device clock do not affect it. Until the first response of the current
+ * boot was received, the device clock is used.
+ */
+public class TrustedTime {
+
+	private static final String TAG = "TrustedTime";
+
+	public static final long ALLOWED_SERVER_TIME_DIFF = 10 * 60 * 1000L;
+	// the Date header is truncated to seconds, the server time was half a second later on average
+	private static final long DATE_HEADER_RESOLUTION_CORRECTION = 500;
+	// samples underestimate the server time by the response latency, so lower samples only slowly pull the estimate down
+	private static final double LOWER_SAMPLE_WEIGHT = 0.25;
+	// a single sample, e.g. with a bogus Date or Age header, can move the estimate up by at most this much
+	public static final long MAX_HIGHER_SAMPLE_STEP = 60 * 1000L;
+	// without a boot count, a reboot is detected by the boot time of the device clock, which moves by the reboot gap
+	private static final long DEVICE_BOOT_TIME_TOLERANCE = 10 * 1000L;
+
+	private static TrustedTime instance;
+
+	private final Context context;
+
+	private boolean hasEstimate;
+	private long bootTimeEstimate;
+
+	public static synchronized TrustedTime getInstance(Context context) {
+		if (instance == null) {
+			instance = new TrustedTime(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * @return the trusted time if the SDK is initialized, the device time otherwise
+	 */
+	public static long now() {
+		TrustedTime trustedTime;
+		synchronized (TrustedTime.class) {
+			trustedTime = instance;
+		}
+		return trustedTime != null ? trustedTime.currentTimeMillis() : System.currentTimeMillis();
+	}
+
+	private TrustedTime(Context context) {
+		this.context = context;
+		AppConfigManager appConfigManager = AppConfigManager.getInstance(context);
+		long sampleElapsedRealtime = appConfigManager.getTrustedTimeSampleElapsedRealtime();
+		if (sampleElapsedRealtime >= 0 && sampleElapsedRealtime <= SystemClock.elapsedRealtime() &&
+				isSameBoot(appConfigManager.getTrustedTimeBootCount(), appConfigManager.getTrustedTimeDeviceBootTime(),
+						getBootCount(context), getDeviceBootTime())) {
+			hasEstimate = true;
+			bootTimeEstimate = appConfigManager.getTrustedTimeBootTime();
+		}
+	}
+
+	/**
+	 * The estimate is relative to the elapsed realtime, so it is only valid for the boot it was sampled in. The boot count is
+	 * only available from API 24, before that the boot time of the device clock has to match. A change of the device clock
+	 * also fails that check, and the estimate is then taken from the next response again.
+	 */
+	public static boolean isSameBoot(int sampleBootCount, long sampleDeviceBootTime, int bootCount, long deviceBootTime) {
+		if (bootCount >= 0) {
+			return sampleBootCount == bootCount;
+		}
+		return sampleBootCount < 0 && sampleDeviceBootTime > 0 &&
+				Math.abs(sampleDeviceBootTime - deviceBootTime) <= DEVICE_BOOT_TIME_TOLERANCE;
+	}
+
+	public synchronized long currentTimeMillis() {
+		if (!hasEstimate) {
+			return System.currentTimeMillis();
+		}
+		return bootTimeEstimate + SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * @return the difference between the trusted time and the device time, 0 if no server time is known for this boot
+	 */
+	public synchronized long getDeviceClockOffset() {
+		if (!hasEstimate) {
+			return 0;
+		}
+		return bootTimeEstimate + SystemClock.elapsedRealtime() - System.currentTimeMillis();
+	}
+
+	synchronized void clearEstimate() {
+		hasEstimate = false;
+	}
+
+	public boolean isDeviceClockOff() {
+		return Math.abs(getDeviceClockOffset()) > ALLOWED_SERVER_TIME_DIFF;
+	}
+
+	/**
+	 * @param serverTime the server time of a response, including its age
+	 * @param elapsedRealtime the {@link SystemClock#elapsedRealtime()} when the response was received
+	 */
+	public synchronized void onServerTime(long serverTime, long elapsedRealtime) {
+		long bootTimeSample = serverTime + DATE_HEADER_RESOLUTION_CORRECTION - elapsedRealtime;
+		bootTimeEstimate = hasEstimate ? computeEstimate(bootTimeEstimate, bootTimeSample) : bootTimeSample;
+		hasEstimate = true;
+
+		AppConfigManager.getInstance(context)
+				.setTrustedTimeSample(bootTimeEstimate, elapsedRealtime, getBootCount(context), getDeviceBootTime());
+		Logger.d(TAG, "device clock offset " + getDeviceClockOffset() + "ms");
+	}
+
+	/**
+	 * A response can not be newer than its reception, so samples above the estimate are taken as they are, up to
+	 * {@link #MAX_HIGHER_SAMPLE_STEP} per sample. Samples below the estimate are averaged in, to follow the drift of the
+	 * elapsed realtime.
+	 */
+	public static long computeEstimate(long estimate, long sample) {
+		if (sample >= estimate) {
+			return Math.min(sample, estimate + MAX_HIGHER_SAMPLE_STEP);
+		}
+		return estimate + Math.round((sample - estimate) * LOWER_SAMPLE_WEIGHT);
+	}
+
+	private static long getDeviceBootTime() {
+		return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+	}
+
+	private static int getBootCount(Context context) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+			return -1;
+		}
+		return Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT, -1);
+	}
+
+}
@@ -14,20 +14,33 @@ import kotlinx.coroutines.runBlocking
 import okhttp3.ResponseBody
 import org.dpppt.android.sdk.backend.SignatureException
 import org.dpppt.android.sdk.backend.SignatureVerificationInterceptor
+import org.dpppt.android.sdk.internal.AppConfigManager
+import org.dpppt.android.sdk.internal.TrustedTime
+import org.dpppt.android.sdk.util.JwsVerifier
 import retrofit2.Response
 import retrofit2.Retrofit
 import java.io.IOException
 import java.security.PublicKey
 
-class BackendBucketRepository(context: Context, bucketBaseUrl: String, publicKey: PublicKey?) : Repository {
+class BackendBucketRepository(context: Context, bucketBaseUrl: String, signatureVerifier: JwsVerifier?) : Repository {
+
+	constructor(context: Context, bucketBaseUrl: String, publicKey: PublicKey?) :
+			this(context, bucketBaseUrl, publicKey?.let { JwsVerifier(it) })
+
+	companion object {
+		private const val HTTP_RANGE_NOT_SATISFIABLE = 416
+	}
 
 	private val bucketService: BucketService
 
 	init {
-		val clientBuilder = getClientBuilder(context).addInterceptor(TimingVerificationInterceptor())
+		val strictTimeCheck = AppConfigManager.getInstance(context).strictServerTimeCheck
+		val clientBuilder = getClientBuilder(context)
+			.addInterceptor(TimingVerificationInterceptor(TrustedTime.getInstance(context), strictTimeCheck))
 
-		if (publicKey != null) {
-			clientBuilder.addInterceptor(SignatureVerificationInterceptor(publicKey))
+		if (signatureVerifier != null) {
+			// key bundles can be several megabytes, so verify them while they are streamed instead of buffering them in memory
+			clientBuilder.addInterceptor(SignatureVerificationInterceptor(signatureVerifier, true))
 		}
 
 		val bucketRetrofit = Retrofit.Builder()
@@ -49,9 +62,22 @@ class BackendBucketRepository(context: Context, bucketBaseUrl: String, publicKey
 	@Throws(IOException::class, StatusCodeException::class, ServerTimeOffsetException::class, SignatureException::class)
 	suspend fun getGaenExposees(
 		lastKeyBundleTag: String?,
-		withFederationGateway: Boolean?
+		withFederationGateway: Boolean?,
+		partialDownload: PartialKeyBundleDownload? = null
 	): Response<ResponseBody> {
-		val response = bucketService.getGaenExposees(lastKeyBundleTag, withFederationGateway)
+		var response = if (partialDownload != null && partialDownload.canResume()) {
+			bucketService.getGaenExposees(
+				lastKeyBundleTag, withFederationGateway,
+				partialDownload.rangeHeader, partialDownload.ifRangeHeader, partialDownload.readPrefixDigest()
+			)
+		} else {
+			bucketService.getGaenExposees(lastKeyBundleTag, withFederationGateway, null, null, null)
+		}
+		if (response.code() == HTTP_RANGE_NOT_SATISFIABLE && partialDownload != null) {
+			response.errorBody()?.close()
+			partialDownload.discard()
+			response = bucketService.getGaenExposees(lastKeyBundleTag, withFederationGateway, null, null, null)
+		}
 		if (response.isSuccessful) {
 			return response
 		} else {
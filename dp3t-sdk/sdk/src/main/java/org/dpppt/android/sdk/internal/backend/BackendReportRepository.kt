@@ -15,6 +15,7 @@ import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.dpppt.android.sdk.backend.ResponseCallback
+import org.dpppt.android.sdk.internal.TrustedTime
 import org.dpppt.android.sdk.internal.backend.models.GaenRequest
 import org.dpppt.android.sdk.models.ExposeeAuthMethod
 import org.dpppt.android.sdk.models.ExposeeAuthMethodAuthorization
@@ -29,7 +30,11 @@ class BackendReportRepository(context: Context, reportBaseUrl: String) : Reposit
 	init {
 		val reportRetrofit = Retrofit.Builder()
 			.baseUrl(reportBaseUrl)
-			.client(getClientBuilder(context).build())
+			.client(
+				getClientBuilder(context)
+					.addInterceptor(TimingVerificationInterceptor(TrustedTime.getInstance(context), false))
+					.build()
+			)
 			.addConverterFactory(GsonConverterFactory.create())
 			.build()
 
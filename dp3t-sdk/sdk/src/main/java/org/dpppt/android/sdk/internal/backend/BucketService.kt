@@ -12,14 +12,23 @@ package org.dpppt.android.sdk.internal.backend
 import okhttp3.ResponseBody
 import retrofit2.Response
 import retrofit2.http.GET
+import retrofit2.http.Header
 import retrofit2.http.Query
+import retrofit2.http.Streaming
+import retrofit2.http.Tag
+import java.security.MessageDigest
 
 internal interface BucketService {
 
+	// without @Streaming Retrofit reads the whole body into memory before returning it
+	@Streaming
 	@GET("v2/gaen/exposed")
 	suspend fun getGaenExposees(
 		@Query("lastKeyBundleTag") lastKeyBundleTag: String?,
-		@Query("withFederationGateway") withFederationGateway: Boolean?
+		@Query("withFederationGateway") withFederationGateway: Boolean?,
+		@Header("Range") range: String?,
+		@Header("If-Range") ifRange: String?,
+		@Tag prefixDigest: MessageDigest?
 	): Response<ResponseBody>
 
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.backend
+
+import okhttp3.ResponseBody
+import org.dpppt.android.sdk.backend.SignatureException
+import org.dpppt.android.sdk.internal.logger.Logger
+import org.dpppt.android.sdk.util.SignatureUtil
+import retrofit2.Response
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * Key bundle download that survives interruptions. The received bytes are persisted in a part file together with the
+ * validator (strong ETag or Last-Modified) of the response, so a later attempt for the same key bundle tag can request only
+ * the missing range with If-Range. The digest of the persisted bytes cannot be serialized, it is rebuilt from the part file
+ * when resuming, which only costs a sequential read of local data.
+ */
+class PartialKeyBundleDownload(directory: File, name: String) {
+
+	companion object {
+		private const val TAG = "PartialKeyBundle"
+
+		private const val PART_SUFFIX = ".part"
+		private const val VALIDATOR_SUFFIX = ".part.validator"
+		private const val HTTP_PARTIAL_CONTENT = 206
+		private val CONTENT_RANGE_START = Regex("""^bytes (\d+)-""")
+	}
+
+	private val partFile = File(directory, name + PART_SUFFIX)
+	private val validatorFile = File(directory, name + VALIDATOR_SUFFIX)
+	private var resumeOffset = 0L
+
+	fun canResume(): Boolean = partFile.length() > 0 && validatorFile.exists()
+
+	val rangeHeader: String
+		get() = "bytes=" + partFile.length() + "-"
+
+	val ifRangeHeader: String
+		get() = validatorFile.readText()
+
+	@Throws(IOException::class)
+	fun readPrefixDigest(): MessageDigest {
+		val digest = MessageDigest.getInstance(SignatureUtil.HASH_ALGO)
+		var length = 0L
+		partFile.inputStream().use { input ->
+			val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+			var read = input.read(buffer)
+			while (read >= 0) {
+				digest.update(buffer, 0, read)
+				length += read
+				read = input.read(buffer)
+			}
+		}
+		resumeOffset = length
+		return digest
+	}
+
+	fun owns(file: File): Boolean = file == partFile || file == validatorFile
+
+	/**
+	 * Streams the response body into the part file, appending to it if the server answered with the requested range, and
+	 * moves it to [target] once the body was read completely. On network errors the received bytes are kept for the next
+	 * attempt, while content that fails the signature check is discarded.
+	 */
+	@Throws(IOException::class)
+	fun complete(response: Response<ResponseBody>, target: File): File {
+		val append = response.code() == HTTP_PARTIAL_CONTENT
+		if (append) {
+			val contentRangeStart = response.headers()["Content-Range"]?.let { CONTENT_RANGE_START.find(it) }?.groupValues?.get(1)
+			if (contentRangeStart?.toLongOrNull() != resumeOffset || partFile.length() != resumeOffset) {
+				response.body()?.close()
+				discard()
+				throw IOException("Unexpected content range " + response.headers()["Content-Range"])
+			}
+			Logger.d(TAG, "resuming " + partFile.name + " at " + resumeOffset)
+		} else {
+			saveValidator(response)
+		}
+
+		try {
+			FileOutputStream(partFile, append).use { fos ->
+				response.body()!!.byteStream().use { it.copyTo(fos) }
+			}
+		} catch (e: SignatureException) {
+			discard()
+			throw e
+		}
+
+		if (!partFile.renameTo(target)) {
+			throw IOException("Unable to rename " + partFile.name)
+		}
+		validatorFile.delete()
+		return target
+	}
+
+	fun discard() {
+		partFile.delete()
+		validatorFile.delete()
+		resumeOffset = 0
+	}
+
+	private fun saveValidator(response: Response<ResponseBody>) {
+		val eTag = response.headers()["ETag"]
+		// If-Range only works with strong validators
+		val validator = if (eTag != null && !eTag.startsWith("W/")) eTag else response.headers()["Last-Modified"]
+		if (validator != null) {
+			validatorFile.writeText(validator)
+		} else {
+			validatorFile.delete()
+		}
+	}
+
+}
@@ -13,12 +13,10 @@ import android.content.Context;
 import androidx.annotation.NonNull;
 
 import java.net.Proxy;
-import java.util.concurrent.TimeUnit;
 
 import org.dpppt.android.sdk.DP3T;
 import org.dpppt.android.sdk.backend.UserAgentInterceptor;
 
-import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 
 import static org.dpppt.android.sdk.internal.backend.ProxyConfig.DISABLE_SYSTEM_PROXY;
@@ -26,26 +24,18 @@ import static org.dpppt.android.sdk.internal.backend.ProxyConfig.DISABLE_SYSTEM_
 public interface Repository {
 
 	default OkHttpClient.Builder getClientBuilder(@NonNull Context context) {
-		OkHttpClient.Builder okHttpBuilder = new OkHttpClient.Builder();
+		OkHttpClient.Builder okHttpBuilder = SharedHttpClient.getInstance(context).newClientBuilder();
 
 		if (DP3T.getUserAgent() != null) {
 			okHttpBuilder.addInterceptor(new UserAgentInterceptor(DP3T.getUserAgent()));
 		}
 
-		int cacheSize = 50 * 1024 * 1024; // 50 MB
-		Cache cache = new Cache(context.getCacheDir(), cacheSize);
-		okHttpBuilder.cache(cache);
-
 		okHttpBuilder.certificatePinner(CertificatePinning.getCertificatePinner());
 
 		if (DISABLE_SYSTEM_PROXY) {
 			okHttpBuilder.proxy(Proxy.NO_PROXY);
 		}
 
-		okHttpBuilder.connectTimeout(60, TimeUnit.SECONDS)
-				.readTimeout(60, TimeUnit.SECONDS)
-				.writeTimeout(60, TimeUnit.SECONDS);
-
 		return okHttpBuilder;
 	}
 
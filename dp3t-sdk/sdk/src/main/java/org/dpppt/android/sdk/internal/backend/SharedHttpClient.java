@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.backend;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Process-wide HTTP stack of the SDK. All repositories derive their client from the base client held here, so they share
+ * one connection pool, dispatcher and cache, and only add their own interceptors.
+ */
+public class SharedHttpClient {
+
+	public static final long DEFAULT_CACHE_SIZE = 50 * 1024 * 1024; // 50 MB
+
+	private static SharedHttpClient instance;
+	private static long cacheSize = DEFAULT_CACHE_SIZE;
+
+	private final OkHttpClient baseClient;
+	private final Cache cache;
+
+	private final AtomicLong connectionsAcquired = new AtomicLong();
+	private final AtomicLong connectionsEstablished = new AtomicLong();
+
+	public static synchronized SharedHttpClient getInstance(Context context) {
+		if (instance == null) {
+			instance = new SharedHttpClient(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Sets the size of the HTTP cache. The cache is shared by all SDK requests, so the size can only be set before the first
+	 * request is made.
+	 */
+	public static synchronized void setCacheSize(long cacheSizeBytes) {
+		if (instance != null && cacheSize != cacheSizeBytes) {
+			throw new IllegalStateException("The HTTP cache size must be set before the first request is made");
+		}
+		cacheSize = cacheSizeBytes;
+	}
+
+	private SharedHttpClient(Context context) {
+		cache = new Cache(context.getCacheDir(), cacheSize);
+		baseClient = new OkHttpClient.Builder()
+				.cache(cache)
+				.eventListener(new ConnectionCountingListener())
+				.connectTimeout(60, TimeUnit.SECONDS)
+				.readTimeout(60, TimeUnit.SECONDS)
+				.writeTimeout(60, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * @return a builder that shares the connection pool, dispatcher and cache of the SDK
+	 */
+	public OkHttpClient.Builder newClientBuilder() {
+		return baseClient.newBuilder();
+	}
+
+	public int getCacheHitCount() {
+		return cache.hitCount();
+	}
+
+	public int getCacheMissCount() {
+		return cache.networkCount();
+	}
+
+	public long getConnectionsAcquiredCount() {
+		return connectionsAcquired.get();
+	}
+
+	public long getConnectionsReusedCount() {
+		return Math.max(0, connectionsAcquired.get() - connectionsEstablished.get());
+	}
+
+	private class ConnectionCountingListener extends EventListener {
+
+		@Override
+		public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy,
+				Protocol protocol) {
+			connectionsEstablished.incrementAndGet();
+		}
+
+		@Override
+		public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+			connectionsAcquired.incrementAndGet();
+		}
+
+	}
+
+}
@@ -10,27 +10,46 @@
 
 package org.dpppt.android.sdk.internal.backend;
 
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.IOException;
 import java.util.Date;
 
+import org.dpppt.android.sdk.internal.TrustedTime;
 import org.dpppt.android.sdk.internal.logger.Logger;
 
 import okhttp3.Headers;
 import okhttp3.Interceptor;
 import okhttp3.Response;
 
+/**
+ * Reports the server time of every network response to the {@link TrustedTime}. With the strict policy, responses whose
+ * server time differs from the device time by more than {@link TrustedTime#ALLOWED_SERVER_TIME_DIFF} are rejected with a
+ * {@link ServerTimeOffsetException}.
+ */
 public class TimingVerificationInterceptor implements Interceptor {
 
-	private static final long ALLOWED_SERVER_TIME_DIFF = 10 * 60 * 1000L;
-
 	private static final String TAG = "TimingVerification";
 
+	private final TrustedTime trustedTime;
+	private final boolean strict;
+
+	public TimingVerificationInterceptor() {
+		this(null, true);
+	}
+
+	public TimingVerificationInterceptor(@Nullable TrustedTime trustedTime, boolean strict) {
+		this.trustedTime = trustedTime;
+		this.strict = strict;
+	}
+
 	@NonNull
 	@Override
 	public Response intercept(@NonNull Chain chain) throws IOException {
 		Response response = chain.proceed(chain.request());
+		long receivedElapsedRealtime = SystemClock.elapsedRealtime();
 
 		Response networkResponse = response.networkResponse();
 		if (networkResponse == null) {
@@ -46,7 +65,12 @@ public class TimingVerificationInterceptor implements Interceptor {
 		long age = ageString != null ? 1000 * Long.parseLong(ageString) : 0;
 		long liveServerTime = serverTime.getTime() + age;
 
-		if (Math.abs(networkResponse.receivedResponseAtMillis() - liveServerTime) > ALLOWED_SERVER_TIME_DIFF) {
+		if (trustedTime != null) {
+			trustedTime.onServerTime(liveServerTime, receivedElapsedRealtime);
+		}
+
+		if (strict &&
+				Math.abs(networkResponse.receivedResponseAtMillis() - liveServerTime) > TrustedTime.ALLOWED_SERVER_TIME_DIFF) {
 			StringBuilder log = new StringBuilder(1111);
 			log.append(networkResponse.toString()).append("\n");
 			Headers headers = networkResponse.headers();
@@ -8,7 +8,9 @@ public enum HistoryEntryType {
 	WORKER_STARTED(2),
 	FAKE_REQUEST(3),
 	NEXT_DAY_KEY_UPLOAD_REQUEST(4),
-	NOTIFICATION(5);
+	NOTIFICATION(5),
+	SYNC_RETRY(6),
+	KEY_SUBMISSION(7);
 
 	private static final SparseArray<HistoryEntryType> ID_TYPE_MAP = new SparseArray<>(HistoryEntryType.values().length);
 
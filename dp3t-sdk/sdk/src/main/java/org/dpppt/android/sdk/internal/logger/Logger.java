@@ -28,6 +28,13 @@ public final class Logger {
 
 	private Logger() { }
 
+	/**
+	 * @return whether messages of the given level are logged, to skip building messages that would be discarded
+	 */
+	public static boolean isLoggable(LogLevel level) {
+		return instance != null && level.getImportance() >= minLevel.getImportance();
+	}
+
 	public static void d(String tag, String message) {
 		log(LogLevel.DEBUG, tag, message);
 	}
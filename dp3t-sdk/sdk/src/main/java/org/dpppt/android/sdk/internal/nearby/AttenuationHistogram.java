@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.nearby;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import com.google.android.gms.nearby.exposurenotification.ExposureWindow;
+import com.google.android.gms.nearby.exposurenotification.ScanInstance;
+
+/**
+ * Seconds of the scan instances of one day by typical attenuation. The attenuation buckets of any thresholds can be read from
+ * the histogram, so a day can be scored again with changed matching parameters without getting the windows from the EN
+ * framework.
+ */
+public class AttenuationHistogram {
+
+	/**
+	 * Attenuations are reported as a single byte, larger values are counted as the largest attenuation.
+	 */
+	public static final int NUMBER_OF_ATTENUATIONS = 256;
+
+	private final int[] secondsPerAttenuation;
+	private int numberOfWindows;
+
+	public AttenuationHistogram() {
+		this(new int[NUMBER_OF_ATTENUATIONS], 0);
+	}
+
+	private AttenuationHistogram(int[] secondsPerAttenuation, int numberOfWindows) {
+		this.secondsPerAttenuation = secondsPerAttenuation;
+		this.numberOfWindows = numberOfWindows;
+	}
+
+	public void addExposureWindow(ExposureWindow exposureWindow) {
+		for (ScanInstance scanInstance : exposureWindow.getScanInstances()) {
+			secondsPerAttenuation[clampAttenuation(scanInstance.getTypicalAttenuationDb())] += scanInstance.getSecondsSinceLastScan();
+		}
+		numberOfWindows++;
+	}
+
+	public int getNumberOfWindows() {
+		return numberOfWindows;
+	}
+
+	/**
+	 * @return the seconds with a typical attenuation from fromDb (inclusive) to toDb (exclusive)
+	 */
+	public int getSeconds(int fromDb, int toDb) {
+		int seconds = 0;
+		for (int attenuation = clampThreshold(fromDb); attenuation < clampThreshold(toDb); attenuation++) {
+			seconds += secondsPerAttenuation[attenuation];
+		}
+		return seconds;
+	}
+
+	/**
+	 * @return the cumulative sums of the histogram, the entry at attenuation a holds the seconds with a typical attenuation below
+	 * a, so the seconds of any bucket are the difference of two entries
+	 */
+	public int[] getCumulativeSeconds() {
+		int[] cumulativeSeconds = new int[NUMBER_OF_ATTENUATIONS + 1];
+		for (int attenuation = 0; attenuation < NUMBER_OF_ATTENUATIONS; attenuation++) {
+			cumulativeSeconds[attenuation + 1] = cumulativeSeconds[attenuation] + secondsPerAttenuation[attenuation];
+		}
+		return cumulativeSeconds;
+	}
+
+	public int getTotalSeconds() {
+		return getSeconds(0, NUMBER_OF_ATTENUATIONS);
+	}
+
+	/**
+	 * @return the durations in seconds per attenuation bucket of the parameters, like the default risk model accumulates them
+	 */
+	public int[] getAttenuationDurationsInSeconds(MatchingParameters parameters) {
+		int[] attenuationDurations = new int[MatchingParameters.NUMBER_OF_BUCKETS];
+		for (int attenuation = 0; attenuation < NUMBER_OF_ATTENUATIONS; attenuation++) {
+			attenuationDurations[parameters.getAttenuationBucket(attenuation)] += secondsPerAttenuation[attenuation];
+		}
+		return attenuationDurations;
+	}
+
+	public boolean isExposureLimitReached(MatchingParameters parameters) {
+		int[] attenuationDurations = getAttenuationDurationsInSeconds(parameters);
+		int minutesLow = (attenuationDurations[MatchingParameters.BUCKET_LOW] + 59) / 60;
+		int minutesMedium = (attenuationDurations[MatchingParameters.BUCKET_MEDIUM] + 59) / 60;
+		return parameters.isExposureLimitReached(minutesLow, minutesMedium);
+	}
+
+	public AttenuationHistogram copy() {
+		return new AttenuationHistogram(secondsPerAttenuation.clone(), numberOfWindows);
+	}
+
+	/**
+	 * Columnar encoding: the number of windows and of used attenuations, followed by the column of attenuation deltas (one
+	 * byte each) and the column of seconds (varints). Only attenuations with seconds are stored, which are few in practice.
+	 */
+	public byte[] toBytes() {
+		int usedAttenuations = 0;
+		for (int seconds : secondsPerAttenuation) {
+			if (seconds != 0) {
+				usedAttenuations++;
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(8 + usedAttenuations * 4);
+		writeVarint(out, numberOfWindows);
+		writeVarint(out, usedAttenuations);
+		int previous = 0;
+		for (int attenuation = 0; attenuation < NUMBER_OF_ATTENUATIONS; attenuation++) {
+			if (secondsPerAttenuation[attenuation] != 0) {
+				out.write(attenuation - previous);
+				previous = attenuation;
+			}
+		}
+		for (int seconds : secondsPerAttenuation) {
+			if (seconds != 0) {
+				writeVarint(out, seconds);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	public static AttenuationHistogram fromBytes(byte[] bytes) {
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			int numberOfWindows = readVarint(buffer);
+			int usedAttenuations = readVarint(buffer);
+			if (usedAttenuations > NUMBER_OF_ATTENUATIONS) {
+				throw new IllegalArgumentException("invalid attenuation histogram");
+			}
+			int[] attenuations = new int[usedAttenuations];
+			int attenuation = 0;
+			for (int i = 0; i < usedAttenuations; i++) {
+				attenuation += buffer.get() & 0xff;
+				if (attenuation >= NUMBER_OF_ATTENUATIONS) {
+					throw new IllegalArgumentException("invalid attenuation histogram");
+				}
+				attenuations[i] = attenuation;
+			}
+			int[] secondsPerAttenuation = new int[NUMBER_OF_ATTENUATIONS];
+			for (int i = 0; i < usedAttenuations; i++) {
+				secondsPerAttenuation[attenuations[i]] = readVarint(buffer);
+			}
+			return new AttenuationHistogram(secondsPerAttenuation, numberOfWindows);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("truncated attenuation histogram", e);
+		}
+	}
+
+	private static int clampAttenuation(int attenuation) {
+		return Math.max(0, Math.min(NUMBER_OF_ATTENUATIONS - 1, attenuation));
+	}
+
+	/**
+	 * @return the threshold as an index into the cumulative sums, thresholds beyond the attenuation range include all or none
+	 * of the seconds
+	 */
+	static int clampThreshold(int threshold) {
+		return Math.max(0, Math.min(NUMBER_OF_ATTENUATIONS, threshold));
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("invalid varint");
+	}
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.nearby;
+
+import com.google.android.gms.nearby.exposurenotification.ExposureWindow;
+import com.google.android.gms.nearby.exposurenotification.ScanInstance;
+
+import org.dpppt.android.sdk.RiskScorer;
+
+import static org.dpppt.android.sdk.internal.nearby.MatchingParameters.BUCKET_LOW;
+import static org.dpppt.android.sdk.internal.nearby.MatchingParameters.BUCKET_MEDIUM;
+
+/**
+ * Default risk model: the seconds of the scan instances are summed up per attenuation bucket and rounded up to full minutes.
+ * The weighted minutes of the low and medium buckets must reach the minimum duration for exposure.
+ */
+public class AttenuationRiskScorer implements RiskScorer {
+
+	private final MatchingParameters parameters;
+
+	public AttenuationRiskScorer(MatchingParameters parameters) {
+		this.parameters = parameters;
+	}
+
+	@Override
+	public String getAccumulatorKey() {
+		return "attenuation:" + parameters.getAttenuationThresholdLow() + "," + parameters.getAttenuationThresholdMedium();
+	}
+
+	@Override
+	public int getNumberOfAccumulators() {
+		return MatchingParameters.NUMBER_OF_BUCKETS;
+	}
+
+	@Override
+	public void addExposureWindow(ExposureWindow exposureWindow, double[] accumulators, int offset) {
+		for (ScanInstance scanInstance : exposureWindow.getScanInstances()) {
+			int bucket = parameters.getAttenuationBucket(scanInstance.getTypicalAttenuationDb());
+			accumulators[offset + bucket] += scanInstance.getSecondsSinceLastScan();
+		}
+	}
+
+	@Override
+	public boolean isExposureLimitReached(double[] accumulators, int offset) {
+		int minutesLow = (int) Math.ceil(accumulators[offset + BUCKET_LOW] / 60);
+		int minutesMedium = (int) Math.ceil(accumulators[offset + BUCKET_MEDIUM] / 60);
+		return parameters.isExposureLimitReached(minutesLow, minutesMedium);
+	}
+
+}
@@ -11,17 +11,24 @@ package org.dpppt.android.sdk.internal.nearby
 
 import android.content.Context
 import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
 import androidx.work.OneTimeWorkRequest
 import androidx.work.WorkManager
 import androidx.work.WorkerParameters
 import com.google.android.gms.nearby.exposurenotification.ExposureWindow
+import org.dpppt.android.sdk.DP3T
+import org.dpppt.android.sdk.RiskScorer
 import org.dpppt.android.sdk.internal.AppConfigManager
+import org.dpppt.android.sdk.internal.TrustedTime
+import org.dpppt.android.sdk.internal.logger.LogLevel
 import org.dpppt.android.sdk.internal.logger.Logger
 import org.dpppt.android.sdk.internal.storage.ExposureDayStorage
+import org.dpppt.android.sdk.internal.storage.MatchingStateStore
 import org.dpppt.android.sdk.models.DayDate
 import org.dpppt.android.sdk.models.ExposureDay
 import java.util.*
-import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.math.ceil
 
 class ExposureWindowMatchingWorker(context: Context, workerParams: WorkerParameters) : CoroutineWorker(context, workerParams) {
@@ -29,76 +36,235 @@ class ExposureWindowMatchingWorker(context: Context, workerParams: WorkerParamet
 	companion object {
 
 		const val WORK_TAG = "org.dpppt.android.sdk.internal.nearby.ExposureWindowMatchingWorker"
+		const val WORK_NAME = WORK_TAG
 		private const val TAG = "MatchingWorker"
-		private val isWorkInProgress = AtomicBoolean(false)
 
+		private val DAY_MILLIS = TimeUnit.DAYS.toMillis(1)
+		private const val MAX_DAYS = 366L
+
+		private enum class State { IDLE, SCHEDULED, RUNNING, RUNNING_DIRTY }
+
+		private val stateLock = Any()
+		private var state = State.IDLE
+		// what the next run does: a rescore only if nothing but rescores were requested, a worker that was restarted by the
+		// WorkManager finds neither request and matches
+		private var matchRequested = false
+		private var rescoreRequested = false
+
+		private val triggers = AtomicLong()
+		private val mergedTriggers = AtomicLong()
+		private val runs = AtomicLong()
+
+		/**
+		 * Schedules a matching run. Triggers that arrive while a run is pending are merged into it. Triggers that arrive while
+		 * a run is in progress mark it dirty, so it is repeated exactly once after it finished.
+		 */
 		@JvmStatic
 		fun startMatchingWorker(context: Context) {
-			val workManager = WorkManager.getInstance(context)
-			workManager.enqueue(OneTimeWorkRequest.Builder(ExposureWindowMatchingWorker::class.java).addTag(WORK_TAG).build())
-			Logger.d(TAG, "scheduled MatchingWorker")
+			trigger(context, rescore = false)
 		}
 
+		private fun trigger(context: Context, rescore: Boolean) {
+			triggers.incrementAndGet()
+			val enqueue = synchronized(stateLock) {
+				if (rescore) rescoreRequested = true else matchRequested = true
+				when (state) {
+					State.IDLE -> {
+						state = State.SCHEDULED
+						true
+					}
+					State.RUNNING -> {
+						state = State.RUNNING_DIRTY
+						false
+					}
+					State.SCHEDULED, State.RUNNING_DIRTY -> {
+						mergedTriggers.incrementAndGet()
+						// the pending work is kept, this only restores it if it was cancelled in the meantime
+						state == State.SCHEDULED
+					}
+				}
+			}
+			if (enqueue) {
+				WorkManager.getInstance(context).enqueueUniqueWork(
+					WORK_NAME,
+					ExistingWorkPolicy.KEEP,
+					OneTimeWorkRequest.Builder(ExposureWindowMatchingWorker::class.java).addTag(WORK_TAG).build()
+				)
+				Logger.d(TAG, "scheduled MatchingWorker")
+			} else {
+				Logger.d(TAG, "merged trigger into running MatchingWorker")
+			}
+		}
+
+		@JvmStatic
+		fun getTriggerCount(): Long = triggers.get()
+
+		@JvmStatic
+		fun getMergedTriggerCount(): Long = mergedTriggers.get()
+
+		@JvmStatic
+		fun getRunCount(): Long = runs.get()
+
 		private fun addDaysWhereExposureLimitIsReached(context: Context, exposureWindows: List<ExposureWindow>) {
-			if (!isWorkInProgress.compareAndSet(false, true)) {
+			val parameters = MatchingParameters.fromConfig(AppConfigManager.getInstance(context))
+			val riskScorer = DP3T.getRiskScorer() ?: AttenuationRiskScorer(parameters)
+			val oldestDay = getOldestDay(parameters, TrustedTime.now())
+			val matchingState = MatchingStateStore.getInstance(context)
+			val newWindows = matchingState.addExposureWindows(exposureWindows, riskScorer, oldestDay)
+			Logger.d(TAG, "" + newWindows + " of " + exposureWindows.size + " ExposureWindows are new")
+
+			val reportTime = System.currentTimeMillis()
+			val exposureDays = evaluateExposureDays(matchingState.accumulators, riskScorer, oldestDay)
+				.map { ExposureDay(-1, it, reportTime) }
+			if (exposureDays.isNotEmpty()) {
+				ExposureDayStorage.getInstance(context).addExposureDays(context, exposureDays)
+			}
+		}
+
+		/**
+		 * Scores the stored days again with the current matching parameters, e.g. after they changed. This uses the attenuation
+		 * histograms of the days and does not get the windows from the EN framework. A custom [RiskScorer] can only be
+		 * evaluated on the windows, so the days are then scored on the next matching run.
+		 * <p>
+		 * The rescoring is a run of this worker, so it never overlaps with a matching run or another rescoring. It is merged
+		 * like a matching trigger, and a pending matching run already scores the days with the current parameters.
+		 */
+		@JvmStatic
+		fun rescoreExposureDays(context: Context) {
+			trigger(context, rescore = true)
+		}
+
+		private fun rescore(context: Context) {
+			if (DP3T.getRiskScorer() != null) {
+				Logger.d(TAG, "custom risk scorer, skip rescoring")
 				return
 			}
+			val parameters = MatchingParameters.fromConfig(AppConfigManager.getInstance(context))
+			val histograms = MatchingStateStore.getInstance(context).attenuationHistograms
+			val reportTime = System.currentTimeMillis()
+			val exposureDays = evaluateExposureDays(histograms, parameters, getOldestDay(parameters, TrustedTime.now()))
+				.map { ExposureDay(-1, it, reportTime) }
+			Logger.d(TAG, "rescored " + histograms.size + " days, " + exposureDays.size + " exposure days")
+			if (exposureDays.isNotEmpty()) {
+				ExposureDayStorage.getInstance(context).addExposureDays(context, exposureDays)
+			}
+		}
 
-			try {
-				val appConfigManager = AppConfigManager.getInstance(context)
-				val attenuationDurationsInSecondsForDate = mutableMapOf<DayDate, IntArray>()
-				for (exposureWindow in exposureWindows) {
-					val windowDate = DayDate(exposureWindow.dateMillisSinceEpoch)
-					Logger.d(TAG, "Received ExposureWindow for " + windowDate.formatAsString() + ": " + exposureWindow.toString())
-					if (!attenuationDurationsInSecondsForDate.containsKey(windowDate)) {
-						attenuationDurationsInSecondsForDate[windowDate] = intArrayOf(0, 0, 0)
-					}
-					val attenuationDurationsInSeconds = attenuationDurationsInSecondsForDate[windowDate] ?: continue
-					for (scanInstance in exposureWindow.scanInstances) {
-						if (scanInstance.typicalAttenuationDb < appConfigManager.attenuationThresholdLow) {
-							attenuationDurationsInSeconds[0] += scanInstance.secondsSinceLastScan
-						} else if (scanInstance.typicalAttenuationDb < appConfigManager.attenuationThresholdMedium) {
-							attenuationDurationsInSeconds[1] += scanInstance.secondsSinceLastScan
-						} else {
-							attenuationDurationsInSeconds[2] += scanInstance.secondsSinceLastScan
-						}
-					}
-				}
-				val exposureDays = getExposureDaysFromAttenuationDurations(context, attenuationDurationsInSecondsForDate)
-				if (exposureDays.isNotEmpty()) {
-					ExposureDayStorage.getInstance(context).addExposureDays(context, exposureDays)
+		/**
+		 * @param histograms the attenuation histograms, by epoch day
+		 * @param oldestDay the epoch day of the oldest day to consider
+		 * @return the days within the considered period on which the exposure limit is reached, oldest first
+		 */
+		@JvmStatic
+		fun evaluateExposureDays(
+			histograms: SortedMap<Long, AttenuationHistogram>,
+			parameters: MatchingParameters,
+			oldestDay: Long
+		): List<DayDate> {
+			return histograms.tailMap(oldestDay)
+				.filter { (_, histogram) -> histogram.isExposureLimitReached(parameters) }
+				.map { (day, _) -> DayDate(day * DAY_MILLIS) }
+		}
+
+		private fun getOldestDay(parameters: MatchingParameters, currentTime: Long): Long {
+			return currentTime / DAY_MILLIS - parameters.numberOfDaysToConsiderForExposure
+		}
+
+		/**
+		 * @param accumulators the accumulators of the risk scorer, by epoch day
+		 * @param oldestDay the epoch day of the oldest day to consider
+		 * @return the days within the considered period on which the exposure limit is reached, oldest first
+		 */
+		@JvmStatic
+		fun evaluateExposureDays(
+			accumulators: SortedMap<Long, DoubleArray>,
+			riskScorer: RiskScorer,
+			oldestDay: Long
+		): List<DayDate> {
+			val exposureDays = ArrayList<DayDate>()
+			for ((day, dayAccumulators) in accumulators.tailMap(oldestDay)) {
+				if (isExposureLimitReached(riskScorer, dayAccumulators, 0, day)) {
+					exposureDays.add(DayDate(day * DAY_MILLIS))
 				}
-			} finally {
-				isWorkInProgress.set(false)
 			}
+			return exposureDays
 		}
 
-		private fun getExposureDaysFromAttenuationDurations(
-			context: Context,
-			attenuationDurationsInSecondsForDate: Map<DayDate, IntArray>
-		): List<ExposureDay> {
-			val exposureDays: MutableList<ExposureDay> = ArrayList()
-			val maxAgeForExposure = DayDate().subtractDays(AppConfigManager.getInstance(context).numberOfDaysToConsiderForExposure)
-			for ((key, value) in attenuationDurationsInSecondsForDate) {
-				if (key.isBefore(maxAgeForExposure)) {
-					Logger.d(TAG, "exposure too far in the past on " + key.formatAsString())
+		/**
+		 * @return the days within the considered period on which the exposure limit is reached, oldest first
+		 */
+		@JvmStatic
+		fun findExposureDays(
+			exposureWindows: List<ExposureWindow>,
+			parameters: MatchingParameters,
+			currentTime: Long
+		): List<DayDate> {
+			return findExposureDays(exposureWindows, AttenuationRiskScorer(parameters), getOldestDay(parameters, currentTime))
+		}
+
+		/**
+		 * Folds all windows into the accumulators of their day in a single pass.
+		 * @param oldestDay the epoch day of the oldest day to consider
+		 * @return the days within the considered period on which the exposure limit is reached, oldest first
+		 */
+		@JvmStatic
+		fun findExposureDays(
+			exposureWindows: List<ExposureWindow>,
+			riskScorer: RiskScorer,
+			oldestDay: Long
+		): List<DayDate> {
+			var newestDay = oldestDay
+			for (exposureWindow in exposureWindows) {
+				newestDay = maxOf(newestDay, exposureWindow.dateMillisSinceEpoch / DAY_MILLIS)
+			}
+			// a window far in the future can only stem from a broken clock, it must not blow up the accumulators
+			newestDay = newestDay.coerceAtMost(oldestDay + MAX_DAYS)
+			val numberOfDays = (newestDay - oldestDay + 1).toInt()
+
+			// the accumulators of a day start at (epoch day - oldest day) * number of accumulators
+			val numberOfAccumulators = riskScorer.numberOfAccumulators
+			val accumulators = DoubleArray(numberOfDays * numberOfAccumulators)
+			val hasWindows = BooleanArray(numberOfDays)
+			val debug = Logger.isLoggable(LogLevel.DEBUG)
+			for (exposureWindow in exposureWindows) {
+				val day = exposureWindow.dateMillisSinceEpoch / DAY_MILLIS
+				if (debug) {
+					Logger.d(TAG, "Received ExposureWindow for " + formatDay(day) + ": " + exposureWindow.toString())
+				}
+				if (day < oldestDay || day > newestDay) {
+					if (debug) Logger.d(TAG, "exposure outside of considered days on " + formatDay(day))
 					continue
 				}
-				Logger.d(
-					TAG, "Checking exposure limit for " + key.formatAsString() + ": " + value.contentToString()
-				)
-				val attenuationDurationsInMinutes = convertAttenuationDurationsToMinutes(value)
-				if (isExposureLimitReached(context, attenuationDurationsInMinutes)) {
-					Logger.d(TAG, "exposure limit reached on " + key.formatAsString())
-					val exposureDay = ExposureDay(-1, key, System.currentTimeMillis())
-					exposureDays.add(exposureDay)
-				} else {
-					Logger.d(TAG, "exposure limit not reached on " + key.formatAsString())
+				val dayIndex = (day - oldestDay).toInt()
+				hasWindows[dayIndex] = true
+				riskScorer.addExposureWindow(exposureWindow, accumulators, dayIndex * numberOfAccumulators)
+			}
+
+			val exposureDays = ArrayList<DayDate>()
+			for (dayIndex in 0 until numberOfDays) {
+				if (!hasWindows[dayIndex]) continue
+				val day = oldestDay + dayIndex
+				if (isExposureLimitReached(riskScorer, accumulators, dayIndex * numberOfAccumulators, day)) {
+					exposureDays.add(DayDate(day * DAY_MILLIS))
 				}
 			}
 			return exposureDays
 		}
 
+		private fun isExposureLimitReached(riskScorer: RiskScorer, accumulators: DoubleArray, offset: Int, day: Long): Boolean {
+			val isExposureLimitReached = riskScorer.isExposureLimitReached(accumulators, offset)
+			if (Logger.isLoggable(LogLevel.DEBUG)) {
+				Logger.d(
+					TAG, "exposure limit " + (if (isExposureLimitReached) "reached" else "not reached") + " on " +
+							formatDay(day) + ": " +
+							accumulators.copyOfRange(offset, offset + riskScorer.numberOfAccumulators).contentToString()
+				)
+			}
+			return isExposureLimitReached
+		}
+
+		private fun formatDay(epochDay: Long): String = DayDate(epochDay * DAY_MILLIS).formatAsString()
+
 		@JvmStatic
 		fun convertAttenuationDurationsToMinutes(attenuationDurationsInSeconds: IntArray): IntArray {
 			val attenuationDurationsInMinutes = IntArray(3)
@@ -110,18 +276,56 @@ class ExposureWindowMatchingWorker(context: Context, workerParams: WorkerParamet
 
 		@JvmStatic
 		fun isExposureLimitReached(context: Context, attenuationDurationsInMinutes: IntArray): Boolean {
-			val appConfigManager = AppConfigManager.getInstance(context)
-			return computeExposureDuration(appConfigManager, attenuationDurationsInMinutes) >=
-					appConfigManager.minDurationForExposure
+			return MatchingParameters.fromConfig(AppConfigManager.getInstance(context))
+				.isExposureLimitReached(attenuationDurationsInMinutes)
 		}
+	}
 
-		private fun computeExposureDuration(appConfigManager: AppConfigManager, attenuationDurationsInMinutes: IntArray): Float {
-			return attenuationDurationsInMinutes[0] * appConfigManager.attenuationFactorLow +
-					attenuationDurationsInMinutes[1] * appConfigManager.attenuationFactorMedium
+	override suspend fun doWork(): Result {
+		synchronized(stateLock) {
+			state = State.RUNNING
+		}
+		var finished = false
+		try {
+			var result: Result
+			do {
+				val rescoreOnly = synchronized(stateLock) {
+					(rescoreRequested && !matchRequested).also {
+						matchRequested = false
+						rescoreRequested = false
+					}
+				}
+				runs.incrementAndGet()
+				result = if (rescoreOnly) {
+					rescore(applicationContext)
+					Result.success()
+				} else {
+					match()
+				}
+				val repeat = synchronized(stateLock) {
+					if (state == State.RUNNING_DIRTY) {
+						state = State.RUNNING
+						true
+					} else {
+						state = State.IDLE
+						false
+					}
+				}
+			} while (repeat)
+			finished = true
+			Logger.d(TAG, "MatchingWorker finished, " + runs.get() + " runs for " + triggers.get() + " triggers")
+			return result
+		} finally {
+			if (!finished) {
+				// a stopped worker is rescheduled by the WorkManager
+				synchronized(stateLock) {
+					state = State.SCHEDULED
+				}
+			}
 		}
 	}
 
-	override suspend fun doWork(): Result {
+	private suspend fun match(): Result {
 		val context = applicationContext
 		val exposureWindows: List<ExposureWindow> = try {
 			GoogleExposureClient.getInstance(context).getExposureWindows()
@@ -133,4 +337,4 @@ class ExposureWindowMatchingWorker(context: Context, workerParams: WorkerParamet
 		return Result.success()
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.nearby;
+
+import org.dpppt.android.sdk.internal.AppConfigManager;
+
+/**
+ * Immutable snapshot of the parameters that decide whether the exposure windows of a day amount to an exposure. It is read
+ * once per matching run, so the matching does not access the preferences for every scan instance.
+ */
+public class MatchingParameters {
+
+	public static final int BUCKET_LOW = 0;
+	public static final int BUCKET_MEDIUM = 1;
+	public static final int BUCKET_HIGH = 2;
+	public static final int NUMBER_OF_BUCKETS = 3;
+
+	private final int attenuationThresholdLow;
+	private final int attenuationThresholdMedium;
+	private final float attenuationFactorLow;
+	private final float attenuationFactorMedium;
+	private final int minDurationForExposure;
+	private final int numberOfDaysToConsiderForExposure;
+
+	public static MatchingParameters fromConfig(AppConfigManager appConfigManager) {
+		return appConfigManager.getConfig().getMatchingParameters();
+	}
+
+	public MatchingParameters(int attenuationThresholdLow, int attenuationThresholdMedium, float attenuationFactorLow,
+			float attenuationFactorMedium, int minDurationForExposure, int numberOfDaysToConsiderForExposure) {
+		this.attenuationThresholdLow = attenuationThresholdLow;
+		this.attenuationThresholdMedium = attenuationThresholdMedium;
+		this.attenuationFactorLow = attenuationFactorLow;
+		this.attenuationFactorMedium = attenuationFactorMedium;
+		this.minDurationForExposure = minDurationForExposure;
+		this.numberOfDaysToConsiderForExposure = numberOfDaysToConsiderForExposure;
+	}
+
+	public int getAttenuationBucket(int typicalAttenuationDb) {
+		if (typicalAttenuationDb < attenuationThresholdLow) {
+			return BUCKET_LOW;
+		} else if (typicalAttenuationDb < attenuationThresholdMedium) {
+			return BUCKET_MEDIUM;
+		} else {
+			return BUCKET_HIGH;
+		}
+	}
+
+	public float computeExposureDuration(int minutesLow, int minutesMedium) {
+		return minutesLow * attenuationFactorLow + minutesMedium * attenuationFactorMedium;
+	}
+
+	public boolean isExposureLimitReached(int minutesLow, int minutesMedium) {
+		return computeExposureDuration(minutesLow, minutesMedium) >= minDurationForExposure;
+	}
+
+	public boolean isExposureLimitReached(int[] attenuationDurationsInMinutes) {
+		return isExposureLimitReached(attenuationDurationsInMinutes[BUCKET_LOW], attenuationDurationsInMinutes[BUCKET_MEDIUM]);
+	}
+
+	public int getAttenuationThresholdLow() {
+		return attenuationThresholdLow;
+	}
+
+	public int getAttenuationThresholdMedium() {
+		return attenuationThresholdMedium;
+	}
+
+	public float getAttenuationFactorLow() {
+		return attenuationFactorLow;
+	}
+
+	public float getAttenuationFactorMedium() {
+		return attenuationFactorMedium;
+	}
+
+	public int getMinDurationForExposure() {
+		return minDurationForExposure;
+	}
+
+	public int getNumberOfDaysToConsiderForExposure() {
+		return numberOfDaysToConsiderForExposure;
+	}
+
+}
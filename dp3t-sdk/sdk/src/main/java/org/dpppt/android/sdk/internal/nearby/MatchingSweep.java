@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.nearby;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.android.gms.nearby.exposurenotification.ExposureWindow;
+
+/**
+ * Evaluates many matching configurations at once, e.g. to tune the parameters of
+ * {@link org.dpppt.android.sdk.DP3T#setMatchingParameters}. The scan instances are walked only once: their seconds are summed
+ * up in an {@link AttenuationHistogram} per day, and the buckets of every configuration are read from the cumulative sums of
+ * that histogram. The exposed days are the same as those of {@code ExposureWindowMatchingWorker.findExposureDays} for every
+ * configuration on its own: only days with windows can be exposed, and windows dated after today are kept up to
+ * {@value #MAX_DAYS} days after the oldest day to consider. Only the number of days to consider is capped at
+ * {@value #MAX_DAYS}.
+ */
+public class MatchingSweep {
+
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	private static final int MAX_DAYS = 366;
+
+	private MatchingSweep() { }
+
+	/**
+	 * @param configurations the configurations to evaluate, the result is indexed in the same order
+	 * @return the weighted minutes and the decisions per configuration and day
+	 */
+	public static Result evaluate(List<ExposureWindow> exposureWindows, List<MatchingParameters> configurations,
+			long currentTime) {
+		if (configurations.isEmpty()) {
+			throw new IllegalArgumentException("no configurations to evaluate");
+		}
+		long today = currentTime / DAY_MILLIS;
+		int maxDaysToConsider = 0;
+		int minDaysToConsider = Integer.MAX_VALUE;
+		for (MatchingParameters configuration : configurations) {
+			maxDaysToConsider = Math.max(maxDaysToConsider, configuration.getNumberOfDaysToConsiderForExposure());
+			minDaysToConsider = Math.min(minDaysToConsider, configuration.getNumberOfDaysToConsiderForExposure());
+		}
+		long oldestDay = today - Math.min(maxDaysToConsider, MAX_DAYS);
+		// like the matching, windows after today are kept up to MAX_DAYS after the oldest day to consider of a configuration
+		long newestDay = today;
+		for (ExposureWindow exposureWindow : exposureWindows) {
+			newestDay = Math.max(newestDay, exposureWindow.getDateMillisSinceEpoch() / DAY_MILLIS);
+		}
+		newestDay = Math.max(today, Math.min(newestDay, today - minDaysToConsider + MAX_DAYS));
+		int numberOfDays = (int) (newestDay - oldestDay + 1);
+
+		AttenuationHistogram[] histograms = new AttenuationHistogram[numberOfDays];
+		for (ExposureWindow exposureWindow : exposureWindows) {
+			long day = exposureWindow.getDateMillisSinceEpoch() / DAY_MILLIS;
+			if (day < oldestDay || day > newestDay) {
+				continue;
+			}
+			int dayIndex = (int) (day - oldestDay);
+			if (histograms[dayIndex] == null) {
+				histograms[dayIndex] = new AttenuationHistogram();
+			}
+			histograms[dayIndex].addExposureWindow(exposureWindow);
+		}
+		// days without windows have no histogram and stay at zero seconds
+		int[][] cumulativeSeconds = new int[numberOfDays][];
+		for (int dayIndex = 0; dayIndex < numberOfDays; dayIndex++) {
+			cumulativeSeconds[dayIndex] = histograms[dayIndex] != null ? histograms[dayIndex].getCumulativeSeconds()
+					: new int[AttenuationHistogram.NUMBER_OF_ATTENUATIONS + 1];
+		}
+
+		int numberOfConfigurations = configurations.size();
+		float[][] weightedMinutes = new float[numberOfConfigurations][numberOfDays];
+		boolean[][] exposed = new boolean[numberOfConfigurations][numberOfDays];
+		for (int c = 0; c < numberOfConfigurations; c++) {
+			MatchingParameters configuration = configurations.get(c);
+			int low = AttenuationHistogram.clampThreshold(configuration.getAttenuationThresholdLow());
+			int medium = Math.max(low, AttenuationHistogram.clampThreshold(configuration.getAttenuationThresholdMedium()));
+			long oldestDayOfConfiguration = today - configuration.getNumberOfDaysToConsiderForExposure();
+			long newestDayOfConfiguration = oldestDayOfConfiguration + MAX_DAYS;
+			for (int dayIndex = 0; dayIndex < numberOfDays; dayIndex++) {
+				int secondsLow = cumulativeSeconds[dayIndex][low];
+				int secondsMedium = cumulativeSeconds[dayIndex][medium] - secondsLow;
+				int minutesLow = (secondsLow + 59) / 60;
+				int minutesMedium = (secondsMedium + 59) / 60;
+				weightedMinutes[c][dayIndex] = configuration.computeExposureDuration(minutesLow, minutesMedium);
+				long day = oldestDay + dayIndex;
+				// a day without windows is never exposed, even if the minimum duration is not positive
+				exposed[c][dayIndex] = histograms[dayIndex] != null && day >= oldestDayOfConfiguration &&
+						day <= newestDayOfConfiguration && configuration.isExposureLimitReached(minutesLow, minutesMedium);
+			}
+		}
+		return new Result(oldestDay, weightedMinutes, exposed);
+	}
+
+	public static class Result {
+
+		private final long oldestDay;
+		private final float[][] weightedMinutes;
+		private final boolean[][] exposed;
+
+		private Result(long oldestDay, float[][] weightedMinutes, boolean[][] exposed) {
+			this.oldestDay = oldestDay;
+			this.weightedMinutes = weightedMinutes;
+			this.exposed = exposed;
+		}
+
+		/**
+		 * @return the epoch day of the first day in the result, the last day is today, or the day of the newest window if it is
+		 * dated after today
+		 */
+		public long getOldestDay() {
+			return oldestDay;
+		}
+
+		public int getNumberOfDays() {
+			return weightedMinutes[0].length;
+		}
+
+		public int getNumberOfConfigurations() {
+			return weightedMinutes.length;
+		}
+
+		public float getWeightedMinutes(int configuration, int dayIndex) {
+			return weightedMinutes[configuration][dayIndex];
+		}
+
+		/**
+		 * @return whether the exposure limit of the configuration is reached on the day, days without windows and days outside
+		 * of the days to consider of the configuration are never exposed
+		 */
+		public boolean isExposureLimitReached(int configuration, int dayIndex) {
+			return exposed[configuration][dayIndex];
+		}
+
+		public int getNumberOfExposureDays(int configuration) {
+			int count = 0;
+			for (boolean isExposed : exposed[configuration]) {
+				if (isExposed) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+	}
+
+}
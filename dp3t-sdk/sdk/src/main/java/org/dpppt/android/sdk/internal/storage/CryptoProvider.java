@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import androidx.security.crypto.EncryptedSharedPreferences;
+import androidx.security.crypto.MasterKeys;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.aead.AeadConfig;
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.integration.android.AndroidKeysetManager;
+
+import org.dpppt.android.sdk.internal.logger.Logger;
+
+/**
+ * Holds the master key and the encryption primitives that are shared by the encrypted stores of the SDK. Getting the master
+ * key and loading a keyset both go through the Android Keystore, so they are done once per process, and in the background
+ * by {@link #warmUp()} at init, instead of in the constructor of every store on the first call from the UI.
+ */
+public class CryptoProvider {
+
+	private static final String TAG = "CryptoProvider";
+
+	private static final String KEYSET_PREF_FILE = "dp3t_record_store_keyset";
+	private static final String KEYSET_NAME = "dp3t_record_store_key";
+
+	private static CryptoProvider instance;
+
+	private final Context context;
+	private String masterKeyAlias;
+	private volatile Aead aead;
+	private final Map<String, SharedPreferences> encryptedSharedPreferences = new HashMap<>();
+
+	private volatile long coldInitDuration = -1;
+	private final AtomicLong waitDuration = new AtomicLong();
+
+	public static synchronized CryptoProvider getInstance(Context context) {
+		if (instance == null) {
+			instance = new CryptoProvider(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	private CryptoProvider(Context context) {
+		this.context = context;
+	}
+
+	/**
+	 * Initializes the master key and the AEAD of the record stores, if that was not done yet.
+	 */
+	public void warmUp() {
+		ensureInitialized();
+	}
+
+	public String getMasterKeyAlias() {
+		ensureInitialized();
+		return masterKeyAlias;
+	}
+
+	/**
+	 * @return the AEAD of the {@link EncryptedRecordStore}s
+	 */
+	public Aead getAead() {
+		ensureInitialized();
+		return aead;
+	}
+
+	/**
+	 * The instances are cached by name, so the keysets of a preferences file are only loaded once.
+	 */
+	public synchronized SharedPreferences getEncryptedSharedPreferences(String name) throws GeneralSecurityException,
+			IOException {
+		SharedPreferences preferences = encryptedSharedPreferences.get(name);
+		if (preferences == null) {
+			preferences = EncryptedSharedPreferences.create(name,
+					getMasterKeyAlias(),
+					context,
+					EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
+					EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM);
+			encryptedSharedPreferences.put(name, preferences);
+		}
+		return preferences;
+	}
+
+	/**
+	 * @return the duration of the initialization in milliseconds, or -1 if it was not done yet
+	 */
+	public long getColdInitDuration() {
+		return coldInitDuration;
+	}
+
+	/**
+	 * @return the total time in milliseconds that callers waited for an initialization running on another thread, which
+	 * stays 0 if the warm up finished before the stores were used
+	 */
+	public long getWaitDuration() {
+		return waitDuration.get();
+	}
+
+	private void ensureInitialized() {
+		if (aead != null) {
+			return;
+		}
+		long start = SystemClock.elapsedRealtime();
+		synchronized (this) {
+			if (aead != null) {
+				waitDuration.addAndGet(SystemClock.elapsedRealtime() - start);
+				return;
+			}
+			try {
+				masterKeyAlias = MasterKeys.getOrCreate(MasterKeys.AES256_GCM_SPEC);
+				AeadConfig.register();
+				aead = new AndroidKeysetManager.Builder()
+						.withKeyTemplate(AeadKeyTemplates.AES256_GCM)
+						.withSharedPref(context, KEYSET_NAME, KEYSET_PREF_FILE)
+						.withMasterKeyUri("android-keystore://" + masterKeyAlias)
+						.build()
+						.getKeysetHandle()
+						.getPrimitive(Aead.class);
+			} catch (GeneralSecurityException | IOException e) {
+				throw new RuntimeException(e);
+			}
+			coldInitDuration = SystemClock.elapsedRealtime() - start;
+			Logger.d(TAG, "initialized in " + coldInitDuration + "ms");
+		}
+	}
+
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.storage;
+
+import android.content.Context;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.util.SparseLongArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.crypto.tink.Aead;
+
+import org.dpppt.android.sdk.internal.logger.Logger;
+
+/**
+ * File of fixed size slots that each hold one record, encrypted on its own with AES-GCM. Changing a record only writes its
+ * slots, instead of the whole collection. The slot index is part of the associated data, so records can not be moved to
+ * another slot or store.
+ * <p>
+ * Records are never overwritten in place: a change writes a new copy of the record, with a higher sequence number, to a free
+ * slot and syncs it, and only then frees the slot of the old copy. A write that is torn by a crash leaves an undecryptable
+ * slot next to the intact old copy, and if both copies are intact, the one with the higher sequence number wins when the
+ * store is opened. The records are addressed by a stable record id, the store maps it to the slot of the current copy.
+ * <p>
+ * The owner of a store keeps its own index of the records by record id.
+ */
+public class EncryptedRecordStore {
+
+	private static final String TAG = "EncryptedRecordStore";
+
+	private static final String DIRECTORY_NAME = "dp3t_records";
+
+	private static final int MAGIC = 0x44503353;
+	private static final int HEADER_SIZE = 8;
+	// record id and sequence number, in front of the data of the record
+	private static final int RECORD_HEADER_SIZE = 4 + 8;
+	// Tink prefix, IV and tag of AES-GCM
+	private static final int AEAD_OVERHEAD = 5 + 12 + 16;
+
+	private final Aead aead;
+	private final String name;
+	private final File file;
+	private final int maxRecordSize;
+	private final int slotSize;
+	private final TreeSet<Integer> freeSlots = new TreeSet<>();
+	// record id -> slot of the current copy of the record
+	private final SparseIntArray slotsByRecordId = new SparseIntArray();
+	private int numberOfSlots;
+	private long sequence;
+
+	private final AtomicLong bytesWritten = new AtomicLong();
+
+	public interface RecordVisitor {
+
+		void visit(int recordId, byte[] record);
+
+	}
+
+	/**
+	 * @param maxRecordSize the maximum size of a record in bytes, it must not change for an existing store
+	 */
+	public EncryptedRecordStore(Context context, String name, int maxRecordSize) {
+		aead = CryptoProvider.getInstance(context).getAead();
+		this.name = name;
+		this.maxRecordSize = maxRecordSize;
+		slotSize = 4 + RECORD_HEADER_SIZE + maxRecordSize + AEAD_OVERHEAD;
+		File directory = new File(context.getNoBackupFilesDir(), DIRECTORY_NAME);
+		directory.mkdirs();
+		file = new File(directory, name);
+		try {
+			open();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Decrypts all slots to find the current copy of every record. Stale copies and slots that can not be decrypted are
+	 * cleared.
+	 */
+	private void open() throws IOException {
+		List<Integer> invalidSlots = new ArrayList<>();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != slotSize) {
+				if (raf.length() >= HEADER_SIZE) {
+					Logger.e(TAG, "dropping incompatible record store " + name);
+				}
+				raf.setLength(0);
+				raf.writeInt(MAGIC);
+				raf.writeInt(slotSize);
+				raf.getFD().sync();
+				return;
+			}
+			numberOfSlots = (int) ((raf.length() - HEADER_SIZE) / slotSize);
+			SparseLongArray sequencesByRecordId = new SparseLongArray();
+			byte[] slotBytes = new byte[slotSize];
+			for (int slot = 0; slot < numberOfSlots; slot++) {
+				raf.seek(getOffset(slot));
+				raf.readFully(slotBytes);
+				int length = ByteBuffer.wrap(slotBytes).getInt();
+				if (length == 0) {
+					freeSlots.add(slot);
+					continue;
+				}
+				ByteBuffer plaintext = decrypt(slot, slotBytes);
+				if (plaintext == null) {
+					invalidSlots.add(slot);
+					continue;
+				}
+				int recordId = plaintext.getInt();
+				long recordSequence = plaintext.getLong();
+				sequence = Math.max(sequence, recordSequence);
+				int currentSlot = slotsByRecordId.get(recordId, -1);
+				if (currentSlot < 0) {
+					slotsByRecordId.put(recordId, slot);
+					sequencesByRecordId.put(recordId, recordSequence);
+				} else if (recordSequence > sequencesByRecordId.get(recordId)) {
+					// the old copy was not freed yet when the last change of the record was interrupted
+					invalidSlots.add(currentSlot);
+					slotsByRecordId.put(recordId, slot);
+					sequencesByRecordId.put(recordId, recordSequence);
+				} else {
+					invalidSlots.add(slot);
+				}
+			}
+		}
+		clearSlots(invalidSlots);
+	}
+
+	/**
+	 * Decrypts all records, in the order of their record ids.
+	 */
+	public synchronized void readAll(RecordVisitor visitor) {
+		List<Integer> invalidSlots = new ArrayList<>();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			byte[] slotBytes = new byte[slotSize];
+			for (int i = 0; i < slotsByRecordId.size(); i++) {
+				int slot = slotsByRecordId.valueAt(i);
+				raf.seek(getOffset(slot));
+				raf.readFully(slotBytes);
+				ByteBuffer plaintext = decrypt(slot, slotBytes);
+				if (plaintext == null) {
+					invalidSlots.add(slot);
+					continue;
+				}
+				int recordId = plaintext.getInt();
+				plaintext.getLong();
+				byte[] record = new byte[plaintext.remaining()];
+				plaintext.get(record);
+				visitor.visit(recordId, record);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (!invalidSlots.isEmpty()) {
+			// the file was changed behind the back of the store
+			for (int slot : invalidSlots) {
+				slotsByRecordId.removeAt(slotsByRecordId.indexOfValue(slot));
+			}
+			clearSlots(invalidSlots);
+		}
+	}
+
+	/**
+	 * @return the record id of the new record
+	 */
+	public synchronized int append(byte[] record) {
+		int recordId = 0;
+		while (slotsByRecordId.indexOfKey(recordId) >= 0) {
+			recordId++;
+		}
+		update(recordId, record);
+		return recordId;
+	}
+
+	public synchronized void update(int recordId, byte[] record) {
+		SparseArray<byte[]> records = new SparseArray<>(1);
+		records.put(recordId, record);
+		updateAll(records);
+	}
+
+	/**
+	 * Writes the new copies of all given records and syncs them once, then frees the slots of their old copies.
+	 * @param records the records by record id, ids that do not exist yet are added
+	 */
+	public synchronized void updateAll(SparseArray<byte[]> records) {
+		if (records.size() == 0) {
+			return;
+		}
+		for (int i = 0; i < records.size(); i++) {
+			if (records.valueAt(i).length > maxRecordSize) {
+				throw new IllegalArgumentException("record of " + records.valueAt(i).length + " bytes exceeds the slot size of " +
+						name);
+			}
+		}
+		List<Integer> oldSlots = new ArrayList<>();
+		SparseIntArray newSlots = new SparseIntArray(records.size());
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			for (int i = 0; i < records.size(); i++) {
+				int recordId = records.keyAt(i);
+				byte[] record = records.valueAt(i);
+				int slot = freeSlots.isEmpty() ? numberOfSlots : freeSlots.first();
+				byte[] plaintext = ByteBuffer.allocate(RECORD_HEADER_SIZE + record.length)
+						.putInt(recordId)
+						.putLong(++sequence)
+						.put(record)
+						.array();
+				byte[] ciphertext = aead.encrypt(plaintext, getAssociatedData(slot));
+				writeSlot(raf, slot, ByteBuffer.allocate(slotSize).putInt(ciphertext.length).put(ciphertext).array());
+				freeSlots.remove(slot);
+				numberOfSlots = Math.max(numberOfSlots, slot + 1);
+				newSlots.put(recordId, slot);
+			}
+			raf.getFD().sync();
+		} catch (GeneralSecurityException | IOException e) {
+			throw new RuntimeException(e);
+		}
+		// the new copies are durable, only now the old copies are removed
+		for (int i = 0; i < newSlots.size(); i++) {
+			int oldSlot = slotsByRecordId.get(newSlots.keyAt(i), -1);
+			if (oldSlot >= 0) {
+				oldSlots.add(oldSlot);
+			}
+			slotsByRecordId.put(newSlots.keyAt(i), newSlots.valueAt(i));
+		}
+		clearSlots(oldSlots);
+	}
+
+	public synchronized void delete(int recordId) {
+		deleteAll(Collections.singletonList(recordId));
+	}
+
+	/**
+	 * Removes the given records with a single sync.
+	 */
+	public synchronized void deleteAll(Collection<Integer> recordIds) {
+		List<Integer> slots = new ArrayList<>(recordIds.size());
+		for (int recordId : recordIds) {
+			int index = slotsByRecordId.indexOfKey(recordId);
+			if (index >= 0) {
+				slots.add(slotsByRecordId.valueAt(index));
+				slotsByRecordId.removeAt(index);
+			}
+		}
+		clearSlots(slots);
+	}
+
+	public synchronized void clear() {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(HEADER_SIZE);
+			raf.getFD().sync();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		freeSlots.clear();
+		slotsByRecordId.clear();
+		numberOfSlots = 0;
+	}
+
+	/**
+	 * @return the number of bytes written to the store since it was opened, to compare the write amplification
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public long getSize() {
+		return file.length();
+	}
+
+	/**
+	 * Overwrites the whole slots, so no ciphertext of the removed copies remains, and frees them.
+	 */
+	private void clearSlots(List<Integer> slots) {
+		if (slots.isEmpty()) {
+			return;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			byte[] emptySlot = new byte[slotSize];
+			for (int slot : slots) {
+				writeSlot(raf, slot, emptySlot);
+			}
+			raf.getFD().sync();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		freeSlots.addAll(slots);
+	}
+
+	/**
+	 * @return the decrypted record id, sequence number and record, or null if the slot does not hold a valid record
+	 */
+	private ByteBuffer decrypt(int slot, byte[] slotBytes) {
+		int length = ByteBuffer.wrap(slotBytes).getInt();
+		if (length <= 0 || length > slotSize - 4) {
+			Logger.e(TAG, "dropping invalid record " + slot + " of " + name);
+			return null;
+		}
+		byte[] ciphertext = new byte[length];
+		System.arraycopy(slotBytes, 4, ciphertext, 0, length);
+		try {
+			byte[] plaintext = aead.decrypt(ciphertext, getAssociatedData(slot));
+			if (plaintext.length < RECORD_HEADER_SIZE) {
+				return null;
+			}
+			return ByteBuffer.wrap(plaintext);
+		} catch (GeneralSecurityException e) {
+			Logger.e(TAG, "dropping invalid record " + slot + " of " + name, e);
+			return null;
+		}
+	}
+
+	private void writeSlot(RandomAccessFile raf, int slot, byte[] slotBytes) throws IOException {
+		raf.seek(getOffset(slot));
+		raf.write(slotBytes);
+		bytesWritten.addAndGet(slotBytes.length);
+	}
+
+	private long getOffset(int slot) {
+		return HEADER_SIZE + (long) slot * slotSize;
+	}
+
+	private byte[] getAssociatedData(int slot) {
+		return (name + "/" + slot).getBytes(StandardCharsets.UTF_8);
+	}
+
+}
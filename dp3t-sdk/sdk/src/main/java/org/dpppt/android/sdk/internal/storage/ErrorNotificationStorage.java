@@ -2,24 +2,45 @@ package org.dpppt.android.sdk.internal.storage;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import androidx.security.crypto.EncryptedSharedPreferences;
-import androidx.security.crypto.MasterKeys;
+import android.util.SparseArray;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.gson.reflect.TypeToken;
 
 import org.dpppt.android.sdk.TracingStatus.ErrorState;
+import org.dpppt.android.sdk.internal.logger.Logger;
 import org.dpppt.android.sdk.internal.storage.models.ActiveNotificationErrors;
 import org.dpppt.android.sdk.internal.util.Json;
 
+/**
+ * Notification state of the tracing errors, stored as one encrypted record per error. Saving the errors only writes the
+ * records of the errors that changed.
+ */
 public class ErrorNotificationStorage {
 
+	private static final String TAG = "ErrorNotificationStore";
+
+	private static final String RECORD_STORE_NAME = "error_notifications";
+	private static final int MAX_ERROR_KEY_LENGTH = 48;
+	// type, suppressed until, length of the error key, error key
+	private static final int RECORD_SIZE = 1 + 8 + 1 + MAX_ERROR_KEY_LENGTH;
+	private static final byte RECORD_TYPE_ACTIVE_ERROR = 1;
+	private static final byte RECORD_TYPE_LAST_SHOWN_ERROR = 2;
+
+	private static final String LEGACY_PREFS_NAME = "dp3t_errornotification_store";
 	private static final String PREF_KEY_ACTIVE_ERRORS = "active_errors";
 	private static final String PREF_KEY_LAST_SHOWN_ERRORS = "last_shown_errors";
 
@@ -28,7 +49,11 @@ public class ErrorNotificationStorage {
 
 	private static ErrorNotificationStorage instance;
 
-	private SharedPreferences esp;
+	private EncryptedRecordStore recordStore;
+
+	// error key -> stored record, by record type
+	private Map<String, StoredError> activeErrors;
+	private Map<String, StoredError> lastShownErrors;
 
 	public static synchronized ErrorNotificationStorage getInstance(Context context) {
 		if (instance == null) {
@@ -38,32 +63,125 @@ public class ErrorNotificationStorage {
 	}
 
 	private ErrorNotificationStorage(Context context) {
+		recordStore = new EncryptedRecordStore(context, RECORD_STORE_NAME, RECORD_SIZE);
+		migrateLegacyPreferences(context);
+	}
+
+	/**
+	 * The errors used to be kept as JSON in encrypted shared preferences. They are moved to the record store once, the
+	 * preferences are only cleared after all records were written.
+	 */
+	private void migrateLegacyPreferences(Context context) {
+		SharedPreferences legacyPrefs = context.getSharedPreferences(LEGACY_PREFS_NAME, Context.MODE_PRIVATE);
+		if (legacyPrefs.getAll().isEmpty()) {
+			return;
+		}
 		try {
-			String KEY_ALIAS = MasterKeys.getOrCreate(MasterKeys.AES256_GCM_SPEC);
-			esp = EncryptedSharedPreferences.create("dp3t_errornotification_store",
-					KEY_ALIAS,
-					context,
-					EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
-					EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM);
+			SharedPreferences esp = CryptoProvider.getInstance(context).getEncryptedSharedPreferences(LEGACY_PREFS_NAME);
+			ActiveNotificationErrors legacyActiveErrors = Json.safeFromJson(esp.getString(PREF_KEY_ACTIVE_ERRORS, "{}"),
+					ActiveNotificationErrors.class, ActiveNotificationErrors::new);
+			Set<String> legacyLastShownErrorKeys = Json.safeFromJson(esp.getString(PREF_KEY_LAST_SHOWN_ERRORS, "[]"),
+					LAST_SHOWN_ERRORS_LIST_TYPE, HashSet::new);
+
+			// a migration that was interrupted is repeated from scratch
+			recordStore.clear();
+			activeErrors = new HashMap<>();
+			lastShownErrors = new HashMap<>();
+			save(RECORD_TYPE_ACTIVE_ERROR, activeErrors, legacyActiveErrors);
+			Map<String, Long> legacyLastShownErrors = new HashMap<>();
+			for (String errorKey : legacyLastShownErrorKeys) {
+				legacyLastShownErrors.put(errorKey, 0L);
+			}
+			save(RECORD_TYPE_LAST_SHOWN_ERROR, lastShownErrors, legacyLastShownErrors);
 		} catch (GeneralSecurityException | IOException e) {
+			// the legacy preferences are kept, so the migration is repeated on the next start
 			throw new RuntimeException(e);
 		}
+		legacyPrefs.edit().clear().commit();
+	}
+
+	private void load() {
+		if (activeErrors != null) {
+			return;
+		}
+		activeErrors = new HashMap<>();
+		lastShownErrors = new HashMap<>();
+		recordStore.readAll((recordId, record) -> {
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			byte type = buffer.get();
+			long suppressedUntil = buffer.getLong();
+			byte[] errorKey = new byte[buffer.get()];
+			buffer.get(errorKey);
+			StoredError storedError = new StoredError(recordId, suppressedUntil);
+			if (type == RECORD_TYPE_ACTIVE_ERROR) {
+				activeErrors.put(new String(errorKey, StandardCharsets.UTF_8), storedError);
+			} else if (type == RECORD_TYPE_LAST_SHOWN_ERROR) {
+				lastShownErrors.put(new String(errorKey, StandardCharsets.UTF_8), storedError);
+			}
+		});
+	}
+
+	/**
+	 * Updates the records of the given type: removed errors free their record, changed errors are written with a single sync
+	 * and unchanged errors are not written.
+	 */
+	private void save(byte type, Map<String, StoredError> storedErrors, Map<String, Long> errors) {
+		List<Integer> removedRecordIds = new ArrayList<>();
+		Iterator<Map.Entry<String, StoredError>> iterator = storedErrors.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, StoredError> entry = iterator.next();
+			if (!errors.containsKey(entry.getKey())) {
+				removedRecordIds.add(entry.getValue().recordId);
+				iterator.remove();
+			}
+		}
+		recordStore.deleteAll(removedRecordIds);
+		SparseArray<byte[]> changedRecords = new SparseArray<>();
+		for (Map.Entry<String, Long> error : errors.entrySet()) {
+			byte[] errorKey = error.getKey().getBytes(StandardCharsets.UTF_8);
+			if (errorKey.length > MAX_ERROR_KEY_LENGTH) {
+				Logger.e(TAG, "error key too long: " + error.getKey());
+				continue;
+			}
+			long suppressedUntil = error.getValue() != null ? error.getValue() : 0;
+			StoredError storedError = storedErrors.get(error.getKey());
+			if (storedError != null && storedError.suppressedUntil == suppressedUntil) {
+				continue;
+			}
+			byte[] record = ByteBuffer.allocate(RECORD_SIZE)
+					.put(type)
+					.putLong(suppressedUntil)
+					.put((byte) errorKey.length)
+					.put(errorKey)
+					.array();
+			if (storedError != null) {
+				changedRecords.put(storedError.recordId, record);
+				storedError.suppressedUntil = suppressedUntil;
+			} else {
+				storedErrors.put(error.getKey(), new StoredError(recordStore.append(record), suppressedUntil));
+			}
+		}
+		recordStore.updateAll(changedRecords);
 	}
 
-	public ActiveNotificationErrors getSavedActiveErrors() {
-		return Json.safeFromJson(esp.getString(PREF_KEY_ACTIVE_ERRORS, "{}"), ActiveNotificationErrors.class,
-				ActiveNotificationErrors::new);
+	public synchronized ActiveNotificationErrors getSavedActiveErrors() {
+		load();
+		ActiveNotificationErrors notificationErrors = new ActiveNotificationErrors();
+		for (Map.Entry<String, StoredError> entry : activeErrors.entrySet()) {
+			notificationErrors.put(entry.getKey(), entry.getValue().suppressedUntil);
+		}
+		return notificationErrors;
 	}
 
-	public void saveActiveErrors(ActiveNotificationErrors notificationErrors) {
-		esp.edit().putString(PREF_KEY_ACTIVE_ERRORS, Json.toJson(notificationErrors, ActiveNotificationErrors.class)).apply();
+	public synchronized void saveActiveErrors(ActiveNotificationErrors notificationErrors) {
+		load();
+		save(RECORD_TYPE_ACTIVE_ERROR, activeErrors, notificationErrors);
 	}
 
-	public Set<ErrorState> getLastShownErrors() {
-		Set<String> lastShownErrorKeys = Json.safeFromJson(esp.getString(PREF_KEY_LAST_SHOWN_ERRORS, "[]"),
-				LAST_SHOWN_ERRORS_LIST_TYPE, HashSet::new);
+	public synchronized Set<ErrorState> getLastShownErrors() {
+		load();
 		Set<ErrorState> lastShownErrors = new HashSet<>();
-		for (String errorKey : lastShownErrorKeys) {
+		for (String errorKey : this.lastShownErrors.keySet()) {
 			ErrorState error = ErrorState.tryValueOf(errorKey);
 			if (error != null) {
 				lastShownErrors.add(error);
@@ -72,16 +190,31 @@ public class ErrorNotificationStorage {
 		return lastShownErrors;
 	}
 
-	public void saveLastShownErrors(Collection<ErrorState> lastShownErrors) {
-		Set<String> lastShownErrorKeys = new HashSet<>();
+	public synchronized void saveLastShownErrors(Collection<ErrorState> lastShownErrors) {
+		load();
+		Map<String, Long> lastShownErrorKeys = new HashMap<>();
 		for (ErrorState error : lastShownErrors) {
-			lastShownErrorKeys.add(error.name());
+			lastShownErrorKeys.put(error.name(), 0L);
 		}
-		esp.edit().putString(PREF_KEY_LAST_SHOWN_ERRORS, Json.toJson(lastShownErrorKeys, LAST_SHOWN_ERRORS_LIST_TYPE)).apply();
+		save(RECORD_TYPE_LAST_SHOWN_ERROR, this.lastShownErrors, lastShownErrorKeys);
 	}
 
-	public void clear() {
-		esp.edit().clear().apply();
+	public synchronized void clear() {
+		recordStore.clear();
+		activeErrors = new HashMap<>();
+		lastShownErrors = new HashMap<>();
+	}
+
+	private static class StoredError {
+
+		private final int recordId;
+		private long suppressedUntil;
+
+		StoredError(int recordId, long suppressedUntil) {
+			this.recordId = recordId;
+			this.suppressedUntil = suppressedUntil;
+		}
+
 	}
 
 }
@@ -11,38 +11,70 @@ package org.dpppt.android.sdk.internal.storage;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import androidx.security.crypto.EncryptedSharedPreferences;
-import androidx.security.crypto.MasterKeys;
+import android.util.SparseArray;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import com.google.gson.reflect.TypeToken;
 
 import org.dpppt.android.sdk.internal.AppConfigManager;
 import org.dpppt.android.sdk.internal.BroadcastHelper;
+import org.dpppt.android.sdk.internal.logger.Logger;
 import org.dpppt.android.sdk.internal.util.Json;
 import org.dpppt.android.sdk.models.DayDate;
 import org.dpppt.android.sdk.models.ExposureDay;
 
+/**
+ * Exposure days, stored as one encrypted record per day. Adding a day appends a record, resetting marks the records as
+ * deleted with a single sync and expired days free their record.
+ */
 public class ExposureDayStorage {
 
-	private static final Type EXPOSUREDAY_LIST_TYPE = new TypeToken<LinkedList<ExposureDay>>() { }.getType();
+	private static final String TAG = "ExposureDayStorage";
+
+	private static final String RECORD_STORE_NAME = "exposure_days";
+	// type, id, exposed epoch day, report date, deleted
+	private static final int RECORD_SIZE = 1 + 4 + 4 + 8 + 1;
+	private static final byte RECORD_TYPE_LAST_ID = 0;
+	private static final byte RECORD_TYPE_EXPOSURE_DAY = 1;
 
+	private static final String LEGACY_PREFS_NAME = "dp3t_exposuredays_store";
+	private static final Type EXPOSUREDAY_LIST_TYPE = new TypeToken<LinkedList<ExposureDay>>() { }.getType();
 	private static final String PREF_KEY_EEXPOSURE_DAYS = "exposureDays";
 	private static final String PREF_KEY_LAST_ID = "last_id";
 
+	private static final Comparator<StoredExposureDay> REPORT_DATE_ORDER = (a, b) -> {
+		int result = Long.compare(a.exposureDay.getReportDate(), b.exposureDay.getReportDate());
+		return result != 0 ? result : a.exposureDay.getExposedDate().compareTo(b.exposureDay.getExposedDate());
+	};
+
 	private static ExposureDayStorage instance;
 
-	private SharedPreferences esp;
+	private EncryptedRecordStore recordStore;
 	private AppConfigManager appConfigManager;
 
+	// index of the stored exposure days by exposed date, with the record id of their record
+	private TreeMap<DayDate, StoredExposureDay> storedExposureDays;
+	// the same exposure days by report date, which decides when they expire
+	private TreeSet<StoredExposureDay> storedExposureDaysByReportDate;
+	private int lastId;
+	private int lastIdRecordId = -1;
+
+	private List<ExposureDay> snapshot;
+	private DayDate snapshotDay;
+	private int snapshotNumberOfDaysToKeep;
+
 	public static synchronized ExposureDayStorage getInstance(Context context) {
 		if (instance == null) {
 			instance = new ExposureDayStorage(context);
@@ -51,89 +83,217 @@ public class ExposureDayStorage {
 	}
 
 	private ExposureDayStorage(Context context) {
+		recordStore = new EncryptedRecordStore(context, RECORD_STORE_NAME, RECORD_SIZE);
+		appConfigManager = AppConfigManager.getInstance(context);
+		migrateLegacyPreferences(context);
+	}
+
+	/**
+	 * The exposure days used to be kept as one JSON list in encrypted shared preferences. They are moved to the record store
+	 * once, the preferences are only cleared after all records were written.
+	 */
+	private void migrateLegacyPreferences(Context context) {
+		SharedPreferences legacyPrefs = context.getSharedPreferences(LEGACY_PREFS_NAME, Context.MODE_PRIVATE);
+		if (legacyPrefs.getAll().isEmpty()) {
+			return;
+		}
 		try {
-			String KEY_ALIAS = MasterKeys.getOrCreate(MasterKeys.AES256_GCM_SPEC);
-			esp = EncryptedSharedPreferences.create("dp3t_exposuredays_store",
-					KEY_ALIAS,
-					context,
-					EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
-					EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM);
+			SharedPreferences esp = CryptoProvider.getInstance(context).getEncryptedSharedPreferences(LEGACY_PREFS_NAME);
+			List<ExposureDay> legacyExposureDays =
+					Json.safeFromJson(esp.getString(PREF_KEY_EEXPOSURE_DAYS, "[]"), EXPOSUREDAY_LIST_TYPE, ArrayList::new);
+			int legacyLastId = esp.getInt(PREF_KEY_LAST_ID, 0);
+
+			// a migration that was interrupted is repeated from scratch
+			recordStore.clear();
+			storedExposureDays = new TreeMap<>();
+			storedExposureDaysByReportDate = new TreeSet<>(REPORT_DATE_ORDER);
+			lastIdRecordId = -1;
+			setLastId(legacyLastId);
+			for (ExposureDay exposureDay : legacyExposureDays) {
+				if (!storedExposureDays.containsKey(exposureDay.getExposedDate())) {
+					index(new StoredExposureDay(recordStore.append(encode(exposureDay)), exposureDay));
+				}
+			}
+			Logger.i(TAG, "migrated " + storedExposureDays.size() + " exposure days");
 		} catch (GeneralSecurityException | IOException e) {
+			// the legacy preferences are kept, so the migration is repeated on the next start
 			throw new RuntimeException(e);
 		}
-		appConfigManager = AppConfigManager.getInstance(context);
+		legacyPrefs.edit().clear().commit();
 	}
 
-	private List<ExposureDay> getExposureDaysInternal() {
-		List<ExposureDay> list =
-				Json.safeFromJson(esp.getString(PREF_KEY_EEXPOSURE_DAYS, "[]"), EXPOSUREDAY_LIST_TYPE, ArrayList::new);
+	private void load() {
+		if (storedExposureDays != null) {
+			return;
+		}
+		storedExposureDays = new TreeMap<>();
+		storedExposureDaysByReportDate = new TreeSet<>(REPORT_DATE_ORDER);
+		recordStore.readAll((recordId, record) -> {
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			byte type = buffer.get();
+			if (type == RECORD_TYPE_LAST_ID) {
+				lastId = Math.max(lastId, buffer.getInt());
+				lastIdRecordId = recordId;
+			} else if (type == RECORD_TYPE_EXPOSURE_DAY) {
+				ExposureDay exposureDay = decode(buffer);
+				// the last id is written after the days, an interrupted add must not lead to reused ids
+				lastId = Math.max(lastId, exposureDay.getId());
+				index(new StoredExposureDay(recordId, exposureDay));
+			}
+		});
+	}
 
+	private void index(StoredExposureDay storedExposureDay) {
+		storedExposureDays.put(storedExposureDay.exposureDay.getExposedDate(), storedExposureDay);
+		storedExposureDaysByReportDate.add(storedExposureDay);
+	}
+
+	/**
+	 * Removes the records of the exposure days that are expired by their report date, with a single sync. Only the expired
+	 * days at the start of the report date index are visited.
+	 */
+	private void removeExpiredExposureDays() {
 		DayDate maxAgeForExposureDay = new DayDate().subtractDays(appConfigManager.getNumberOfDaysToKeepExposedDays());
-		Iterator<ExposureDay> iterator = list.iterator();
+		List<Integer> expiredRecordIds = new ArrayList<>();
+		Iterator<StoredExposureDay> iterator = storedExposureDaysByReportDate.iterator();
 		while (iterator.hasNext()) {
-			if (new DayDate(iterator.next().getReportDate()).isBefore(maxAgeForExposureDay)) {
-				iterator.remove();
+			StoredExposureDay storedExposureDay = iterator.next();
+			if (!new DayDate(storedExposureDay.exposureDay.getReportDate()).isBefore(maxAgeForExposureDay)) {
+				break;
 			}
+			expiredRecordIds.add(storedExposureDay.recordId);
+			storedExposureDays.remove(storedExposureDay.exposureDay.getExposedDate());
+			iterator.remove();
 		}
-
-		Collections.sort(list, (a, b) -> a.getExposedDate().compareTo(b.getExposedDate()));
-
-		return list;
+		recordStore.deleteAll(expiredRecordIds);
 	}
 
-	public List<ExposureDay> getExposureDays() {
-		List<ExposureDay> list = getExposureDaysInternal();
-		Iterator<ExposureDay> iterator = list.iterator();
-		while (iterator.hasNext()) {
-			if (iterator.next().isDeleted()) {
-				iterator.remove();
+	/**
+	 * The returned list is a snapshot that is shared by all callers until the exposure days change, or the day or the
+	 * number of days to keep changes, which may expire exposure days. It must not be modified.
+	 */
+	public synchronized List<ExposureDay> getExposureDays() {
+		DayDate today = new DayDate();
+		int numberOfDaysToKeep = appConfigManager.getConfig().getNumberOfDaysToKeepExposedDays();
+		if (snapshot != null && today.equals(snapshotDay) && numberOfDaysToKeep == snapshotNumberOfDaysToKeep) {
+			return snapshot;
+		}
+
+		load();
+		DayDate maxAgeForExposureDay = today.subtractDays(numberOfDaysToKeep);
+		List<ExposureDay> list = new ArrayList<>();
+		// the index is sorted by exposed date
+		for (StoredExposureDay storedExposureDay : storedExposureDays.values()) {
+			ExposureDay exposureDay = storedExposureDay.exposureDay;
+			if (!exposureDay.isDeleted() && !new DayDate(exposureDay.getReportDate()).isBefore(maxAgeForExposureDay)) {
+				// copies, so a caller cannot modify the stored entries
+				list.add(new ExposureDay(exposureDay.getId(), exposureDay.getExposedDate(), exposureDay.getReportDate()));
 			}
 		}
-		return list;
+		snapshot = Collections.unmodifiableList(list);
+		snapshotDay = today;
+		snapshotNumberOfDaysToKeep = numberOfDaysToKeep;
+		return snapshot;
 	}
 
-	public void addExposureDays(Context context, List<ExposureDay> newExposureDays) {
-		List<ExposureDay> previousExposureDays = getExposureDaysInternal();
-		int id = esp.getInt(PREF_KEY_LAST_ID, 0);
+	public synchronized void addExposureDays(Context context, List<ExposureDay> newExposureDays) {
+		load();
+		removeExpiredExposureDays();
+		int previousId = lastId;
+		int id = previousId;
 		for (ExposureDay exposureDay : newExposureDays) {
-			boolean alreadyInserted = false;
-			for (ExposureDay previousExposureDay : previousExposureDays) {
-				if (previousExposureDay.getExposedDate().equals(exposureDay.getExposedDate())) {
-					alreadyInserted = true;
-					break;//exposure day was already added
-				}
-			}
-			if (alreadyInserted) {
-				continue;
+			if (storedExposureDays.containsKey(exposureDay.getExposedDate())) {
+				continue;//exposure day was already added
 			}
 
 			id++;
 			exposureDay.setId(id);
-			previousExposureDays.add(exposureDay);
+			index(new StoredExposureDay(recordStore.append(encode(exposureDay)), exposureDay));
 		}
+		snapshot = null;
 
-		esp.edit()
-				.putInt(PREF_KEY_LAST_ID, id)
-				.putString(PREF_KEY_EEXPOSURE_DAYS, Json.toJson(previousExposureDays))
-				.apply();
+		if (id == previousId) {
+			// the matching reports all days that reached the limit, usually they are known already
+			return;
+		}
+		setLastId(id);
 
 		BroadcastHelper.sendUpdateBroadcast(context);
 	}
 
-	public void resetExposureDays() {
-		List<ExposureDay> previousExposureDays = getExposureDaysInternal();
-		for (ExposureDay previousExposureDay : previousExposureDays) {
-			previousExposureDay.setDeleted(true);
+	public synchronized void resetExposureDays() {
+		load();
+		removeExpiredExposureDays();
+		SparseArray<byte[]> records = new SparseArray<>();
+		for (StoredExposureDay storedExposureDay : storedExposureDays.values()) {
+			if (!storedExposureDay.exposureDay.isDeleted()) {
+				storedExposureDay.exposureDay.setDeleted(true);
+				records.put(storedExposureDay.recordId, encode(storedExposureDay.exposureDay));
+			}
+		}
+		// all days are marked with one sync, instead of one per day
+		recordStore.updateAll(records);
+		snapshot = null;
+	}
+
+	public synchronized void clear() {
+		load();
+		List<Integer> recordIds = new ArrayList<>(storedExposureDays.size());
+		for (StoredExposureDay storedExposureDay : storedExposureDays.values()) {
+			recordIds.add(storedExposureDay.recordId);
+		}
+		recordStore.deleteAll(recordIds);
+		storedExposureDays.clear();
+		storedExposureDaysByReportDate.clear();
+		snapshot = null;
+	}
+
+	/**
+	 * @return the number of bytes written to the record store, to compare the write amplification
+	 */
+	public long getBytesWritten() {
+		return recordStore.getBytesWritten();
+	}
+
+	private void setLastId(int id) {
+		lastId = id;
+		byte[] record = ByteBuffer.allocate(RECORD_SIZE).put(RECORD_TYPE_LAST_ID).putInt(id).array();
+		if (lastIdRecordId < 0) {
+			lastIdRecordId = recordStore.append(record);
+		} else {
+			recordStore.update(lastIdRecordId, record);
 		}
-		esp.edit()
-				.putString(PREF_KEY_EEXPOSURE_DAYS, Json.toJson(previousExposureDays, EXPOSUREDAY_LIST_TYPE))
-				.apply();
 	}
 
-	public void clear() {
-		esp.edit()
-				.putString(PREF_KEY_EEXPOSURE_DAYS, Json.toJson(new ArrayList<>(), EXPOSUREDAY_LIST_TYPE))
-				.apply();
+	private static byte[] encode(ExposureDay exposureDay) {
+		return ByteBuffer.allocate(RECORD_SIZE)
+				.put(RECORD_TYPE_EXPOSURE_DAY)
+				.putInt(exposureDay.getId())
+				.putInt((int) exposureDay.getExposedDate().getEpochDay())
+				.putLong(exposureDay.getReportDate())
+				.put((byte) (exposureDay.isDeleted() ? 1 : 0))
+				.array();
+	}
+
+	private static ExposureDay decode(ByteBuffer buffer) {
+		int id = buffer.getInt();
+		DayDate exposedDate = DayDate.fromEpochDay(buffer.getInt());
+		long reportDate = buffer.getLong();
+		ExposureDay exposureDay = new ExposureDay(id, exposedDate, reportDate);
+		exposureDay.setDeleted(buffer.get() != 0);
+		return exposureDay;
+	}
+
+	private static class StoredExposureDay {
+
+		private final int recordId;
+		private final ExposureDay exposureDay;
+
+		StoredExposureDay(int recordId, ExposureDay exposureDay) {
+			this.recordId = recordId;
+			this.exposureDay = exposureDay;
+		}
+
 	}
 
 }
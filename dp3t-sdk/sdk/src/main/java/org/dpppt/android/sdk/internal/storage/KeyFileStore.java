@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.storage;
+
+import android.content.Context;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dpppt.android.sdk.internal.logger.Logger;
+
+/**
+ * Directory that holds the key bundles of the SDK: partial downloads and verified bundles waiting to be provided to the EN
+ * framework. The directory is owned by the SDK, so it can be listed and cleaned up without touching other files. The store is
+ * kept below a byte quota by evicting the least recently written partial downloads, and bundles older than the maximum age
+ * are dropped.
+ * <p>
+ * Verified bundles are never evicted for space: the last bundle tag advances as soon as a bundle is persisted, so an evicted
+ * bundle would not be downloaded again and its keys would be lost. They only leave the store once they were provided to the
+ * EN framework, so pending bundles may exceed the quota until the next submission.
+ */
+public class KeyFileStore {
+
+	private static final String TAG = "KeyFileStore";
+
+	private static final String DIRECTORY_NAME = "dp3t_keyfiles";
+	private static final String LEGACY_KEYFILE_PREFIX = "keyfile_";
+	public static final String KEYFILE_SUFFIX = ".zip";
+
+	public static final long DEFAULT_QUOTA = 20 * 1024 * 1024; // 20 MB
+	// bundles that could not be provided for this long only contain keys that are no longer relevant
+	private static final long MAX_AGE = TimeUnit.DAYS.toMillis(14);
+	// space that must remain available on the device after a bundle was written
+	private static final long MIN_FREE_SPACE = 5 * 1024 * 1024;
+
+	private static KeyFileStore instance;
+
+	private final File directory;
+	private long quota = DEFAULT_QUOTA;
+
+	private final AtomicLong evictedFiles = new AtomicLong();
+	private final AtomicLong evictedBytes = new AtomicLong();
+
+	public static synchronized KeyFileStore getInstance(Context context) {
+		if (instance == null) {
+			instance = new KeyFileStore(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	private KeyFileStore(Context context) {
+		directory = new File(context.getNoBackupFilesDir(), DIRECTORY_NAME);
+		if (!directory.exists()) {
+			// key bundles used to be kept in the cache directory, remove them once when the store is created
+			File[] legacyFiles = context.getCacheDir().listFiles((dir, name) -> name.startsWith(LEGACY_KEYFILE_PREFIX));
+			if (legacyFiles != null) {
+				for (File file : legacyFiles) {
+					file.delete();
+				}
+			}
+			directory.mkdirs();
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public synchronized void setQuota(long quotaBytes) {
+		quota = quotaBytes;
+	}
+
+	public File getKeyFile(String name) {
+		return new File(directory, name + KEYFILE_SUFFIX);
+	}
+
+	/**
+	 * @return the verified key bundles, oldest first
+	 */
+	public List<File> getKeyFiles() {
+		List<File> keyFiles = listFiles();
+		List<File> result = new ArrayList<>(keyFiles.size());
+		for (File file : keyFiles) {
+			if (file.getName().endsWith(KEYFILE_SUFFIX)) {
+				result.add(file);
+			}
+		}
+		return result;
+	}
+
+	public void remove(File file) {
+		if (!file.delete()) {
+			Logger.w(TAG, "Unable to delete file " + file.getName());
+		}
+	}
+
+	public void clear() {
+		for (File file : listFiles()) {
+			remove(file);
+		}
+	}
+
+	/**
+	 * Makes sure a file of the given size can be written to the store. Old partial downloads are evicted to stay below the
+	 * quota and to keep enough space available on the device, pending bundles are kept.
+	 * @param requiredBytes the expected size of the file, or -1 if it is unknown
+	 * @param inUse accepts the files that must not be evicted, e.g. the part file the new data is appended to
+	 * @throws IOException with an ENOSPC cause if the space can not be made available
+	 */
+	public synchronized void ensureSpace(long requiredBytes, @Nullable FileFilter inUse) throws IOException {
+		long required = Math.max(requiredBytes, 0);
+		evict(quota - required, inUse);
+		long missingSpace = required + MIN_FREE_SPACE - directory.getUsableSpace();
+		if (missingSpace > 0) {
+			evict(getSize() - missingSpace, inUse);
+			if (required + MIN_FREE_SPACE > directory.getUsableSpace()) {
+				throw new IOException("Not enough space for key file of " + required + " bytes",
+						new ErrnoException("getUsableSpace", OsConstants.ENOSPC));
+			}
+		}
+	}
+
+	/**
+	 * Removes files that are older than the maximum age, files that are not used anymore and the least recently written partial
+	 * downloads exceeding the quota.
+	 * @param isObsolete decides whether a file that is not a verified key bundle can be removed
+	 * @param inUse accepts the files that must not be evicted for the quota, e.g. the part file of the download to resume
+	 */
+	public synchronized void cleanup(FileFilter isObsolete, @Nullable FileFilter inUse) {
+		long minLastModified = System.currentTimeMillis() - MAX_AGE;
+		for (File file : listFiles()) {
+			boolean isKeyFile = file.getName().endsWith(KEYFILE_SUFFIX);
+			if (!isKeyFile && isObsolete.accept(file)) {
+				evict(file);
+			} else if (file.lastModified() < minLastModified) {
+				// the keys of a bundle that could not be provided for this long are expired for the EN framework as well
+				Logger.w(TAG, "dropping expired " + file.getName());
+				evict(file);
+			}
+		}
+		evict(quota, inUse);
+	}
+
+	public long getSize() {
+		long size = 0;
+		for (File file : listFiles()) {
+			size += file.length();
+		}
+		return size;
+	}
+
+	public long getEvictionCount() {
+		return evictedFiles.get();
+	}
+
+	public long getEvictedBytes() {
+		return evictedBytes.get();
+	}
+
+	private void evict(long targetSize, @Nullable FileFilter inUse) {
+		List<File> files = listFiles();
+		long size = 0;
+		for (File file : files) {
+			size += file.length();
+		}
+		for (File file : files) {
+			if (size <= targetSize) {
+				break;
+			}
+			if (!file.getName().endsWith(KEYFILE_SUFFIX) && (inUse == null || !inUse.accept(file))) {
+				size -= file.length();
+				evict(file);
+			}
+		}
+	}
+
+	private void evict(File file) {
+		long length = file.length();
+		if (file.delete()) {
+			evictedFiles.incrementAndGet();
+			evictedBytes.addAndGet(length);
+			Logger.d(TAG, "evicted " + file.getName());
+		} else {
+			Logger.w(TAG, "Unable to delete file " + file.getName());
+		}
+	}
+
+	/**
+	 * @return the files of the store, least recently written first
+	 */
+	private List<File> listFiles() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return Collections.emptyList();
+		}
+		List<File> fileList = new ArrayList<>(Arrays.asList(files));
+		Collections.sort(fileList, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+		return fileList;
+	}
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.android.gms.nearby.exposurenotification.ExposureWindow;
+import com.google.android.gms.nearby.exposurenotification.ScanInstance;
+
+import org.dpppt.android.sdk.RiskScorer;
+import org.dpppt.android.sdk.internal.logger.Logger;
+import org.dpppt.android.sdk.internal.nearby.AttenuationHistogram;
+import org.dpppt.android.sdk.internal.util.Base64Util;
+
+/**
+ * Incremental state of the exposure window matching. For every day, it keeps the fingerprints of the windows that were
+ * already processed and the accumulators of the {@link RiskScorer}. Only windows with a new fingerprint are folded into the
+ * accumulators, and only the days that changed are written.
+ * <p>
+ * Independent of the risk scorer, every day also keeps an {@link AttenuationHistogram} of its windows. It allows scoring the
+ * days again with changed matching parameters, and querying the exposure trend, without getting the windows from the EN
+ * framework.
+ */
+public class MatchingStateStore {
+
+	private static final String TAG = "MatchingStateStore";
+
+	private static final String PREF_KEY_ACCUMULATOR_KEY = "accumulatorKey";
+	private static final String PREF_KEY_DAY_PREFIX = "day_";
+	private static final String PREF_KEY_SUMMARY_PREFIX = "summary_";
+
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	private static MatchingStateStore instance;
+
+	private final SharedPreferences esp;
+	private TreeMap<Long, DayState> days;
+	private String accumulatorKey;
+
+	public static synchronized MatchingStateStore getInstance(Context context) {
+		if (instance == null) {
+			instance = new MatchingStateStore(context);
+		}
+		return instance;
+	}
+
+	private MatchingStateStore(Context context) {
+		try {
+			esp = CryptoProvider.getInstance(context).getEncryptedSharedPreferences("dp3t_matching_state_store");
+		} catch (GeneralSecurityException | IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Folds the windows that were not processed before into the per-day accumulators. If the accumulator key of the scorer
+	 * changed, the accumulators are rebuilt from the given windows.
+	 * @param oldestDay the epoch day of the oldest day to keep, older windows and days are dropped
+	 * @return the number of new windows
+	 */
+	public synchronized int addExposureWindows(List<ExposureWindow> exposureWindows, RiskScorer riskScorer, long oldestDay) {
+		load();
+		SharedPreferences.Editor editor = esp.edit();
+
+		String currentAccumulatorKey = riskScorer.getAccumulatorKey() + "/" + riskScorer.getNumberOfAccumulators();
+		if (!currentAccumulatorKey.equals(accumulatorKey)) {
+			Logger.i(TAG, "risk scorer changed, rebuilding accumulators");
+			for (Long day : days.keySet()) {
+				editor.remove(PREF_KEY_DAY_PREFIX + day);
+				editor.remove(PREF_KEY_SUMMARY_PREFIX + day);
+			}
+			days.clear();
+			accumulatorKey = currentAccumulatorKey;
+			editor.putString(PREF_KEY_ACCUMULATOR_KEY, accumulatorKey);
+		}
+
+		Iterator<Map.Entry<Long, DayState>> iterator = days.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Long, DayState> entry = iterator.next();
+			if (entry.getKey() < oldestDay) {
+				editor.remove(PREF_KEY_DAY_PREFIX + entry.getKey());
+				editor.remove(PREF_KEY_SUMMARY_PREFIX + entry.getKey());
+				iterator.remove();
+			}
+		}
+
+		HashMap<Long, List<ExposureWindow>> windowsByDay = new HashMap<>();
+		for (ExposureWindow exposureWindow : exposureWindows) {
+			long day = exposureWindow.getDateMillisSinceEpoch() / DAY_MILLIS;
+			if (day < oldestDay) {
+				continue;
+			}
+			List<ExposureWindow> windows = windowsByDay.get(day);
+			if (windows == null) {
+				windows = new ArrayList<>();
+				windowsByDay.put(day, windows);
+			}
+			windows.add(exposureWindow);
+		}
+
+		int newWindows = 0;
+		for (Map.Entry<Long, List<ExposureWindow>> entry : windowsByDay.entrySet()) {
+			DayState dayState = days.get(entry.getKey());
+			if (dayState == null) {
+				dayState = new DayState(new long[0], new double[riskScorer.getNumberOfAccumulators()],
+						new AttenuationHistogram());
+			}
+			int newWindowsOfDay = dayState.addExposureWindows(entry.getValue(), riskScorer);
+			if (newWindowsOfDay > 0) {
+				days.put(entry.getKey(), dayState);
+				editor.putString(PREF_KEY_DAY_PREFIX + entry.getKey(), dayState.serialize());
+				editor.putString(PREF_KEY_SUMMARY_PREFIX + entry.getKey(), Base64Util.toBase64(dayState.histogram.toBytes()));
+				newWindows += newWindowsOfDay;
+			}
+		}
+
+		editor.apply();
+		return newWindows;
+	}
+
+	/**
+	 * @return the accumulators of the risk scorer, by epoch day
+	 */
+	public synchronized TreeMap<Long, double[]> getAccumulators() {
+		load();
+		TreeMap<Long, double[]> result = new TreeMap<>();
+		for (Map.Entry<Long, DayState> entry : days.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().accumulators.clone());
+		}
+		return result;
+	}
+
+	/**
+	 * @return the attenuation histograms of the windows, by epoch day
+	 */
+	public synchronized TreeMap<Long, AttenuationHistogram> getAttenuationHistograms() {
+		load();
+		TreeMap<Long, AttenuationHistogram> result = new TreeMap<>();
+		for (Map.Entry<Long, DayState> entry : days.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().histogram.copy());
+		}
+		return result;
+	}
+
+	public synchronized void clear() {
+		esp.edit().clear().apply();
+		days = null;
+		accumulatorKey = null;
+	}
+
+	private void load() {
+		if (days != null) {
+			return;
+		}
+		days = new TreeMap<>();
+		accumulatorKey = esp.getString(PREF_KEY_ACCUMULATOR_KEY, null);
+		Map<String, ?> entries = esp.getAll();
+		SharedPreferences.Editor editor = null;
+		for (Map.Entry<String, ?> entry : entries.entrySet()) {
+			if (!entry.getKey().startsWith(PREF_KEY_DAY_PREFIX) || !(entry.getValue() instanceof String)) {
+				continue;
+			}
+			String day = entry.getKey().substring(PREF_KEY_DAY_PREFIX.length());
+			Object summary = entries.get(PREF_KEY_SUMMARY_PREFIX + day);
+			try {
+				if (!(summary instanceof String)) {
+					// the windows of the day are processed again, so the histogram and the accumulators stay consistent
+					throw new IllegalArgumentException("missing summary");
+				}
+				AttenuationHistogram histogram = AttenuationHistogram.fromBytes(Base64Util.fromBase64((String) summary));
+				days.put(Long.parseLong(day), DayState.deserialize((String) entry.getValue(), histogram));
+			} catch (IllegalArgumentException e) {
+				Logger.e(TAG, "dropping invalid day state " + entry.getKey(), e);
+				if (editor == null) {
+					editor = esp.edit();
+				}
+				editor.remove(entry.getKey());
+				editor.remove(PREF_KEY_SUMMARY_PREFIX + day);
+			}
+		}
+		if (editor != null) {
+			editor.apply();
+		}
+	}
+
+	/**
+	 * Fingerprint of the content of a window. Windows are returned again by every call to the EN framework, so the fingerprint
+	 * identifies the windows that were already processed.
+	 */
+	public static long getFingerprint(ExposureWindow exposureWindow) {
+		long hash = 0xcbf29ce484222325L;
+		hash = fnv1a(hash, exposureWindow.getDateMillisSinceEpoch());
+		hash = fnv1a(hash, exposureWindow.getReportType());
+		hash = fnv1a(hash, exposureWindow.getInfectiousness());
+		hash = fnv1a(hash, exposureWindow.getCalibrationConfidence());
+		for (ScanInstance scanInstance : exposureWindow.getScanInstances()) {
+			hash = fnv1a(hash, scanInstance.getTypicalAttenuationDb());
+			hash = fnv1a(hash, scanInstance.getMinAttenuationDb());
+			hash = fnv1a(hash, scanInstance.getSecondsSinceLastScan());
+		}
+		return hash;
+	}
+
+	private static long fnv1a(long hash, long value) {
+		for (int i = 0; i < 8; i++) {
+			hash ^= (value >>> (8 * i)) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static class DayState {
+
+		// sorted, a fingerprint occurs once for every identical window
+		private long[] fingerprints;
+		private final double[] accumulators;
+		private final AttenuationHistogram histogram;
+
+		DayState(long[] fingerprints, double[] accumulators, AttenuationHistogram histogram) {
+			this.fingerprints = fingerprints;
+			this.accumulators = accumulators;
+			this.histogram = histogram;
+		}
+
+		int addExposureWindows(List<ExposureWindow> exposureWindows, RiskScorer riskScorer) {
+			int count = exposureWindows.size();
+			long[] windowFingerprints = new long[count];
+			Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				windowFingerprints[i] = getFingerprint(exposureWindows.get(i));
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Long.compare(windowFingerprints[a], windowFingerprints[b]));
+
+			// multiset difference of the sorted fingerprints, identical windows of different contacts are all counted
+			long[] merged = new long[fingerprints.length + count];
+			int mergedCount = 0;
+			int newWindows = 0;
+			int known = 0;
+			for (int i = 0; i < count; i++) {
+				long fingerprint = windowFingerprints[order[i]];
+				while (known < fingerprints.length && fingerprints[known] < fingerprint) {
+					merged[mergedCount++] = fingerprints[known++];
+				}
+				merged[mergedCount++] = fingerprint;
+				if (known < fingerprints.length && fingerprints[known] == fingerprint) {
+					known++;
+				} else {
+					newWindows++;
+					ExposureWindow exposureWindow = exposureWindows.get(order[i]);
+					riskScorer.addExposureWindow(exposureWindow, accumulators, 0);
+					histogram.addExposureWindow(exposureWindow);
+				}
+			}
+			while (known < fingerprints.length) {
+				merged[mergedCount++] = fingerprints[known++];
+			}
+			if (newWindows > 0) {
+				fingerprints = Arrays.copyOf(merged, mergedCount);
+			}
+			return newWindows;
+		}
+
+		String serialize() {
+			ByteBuffer buffer = ByteBuffer.allocate(fingerprints.length * 8);
+			buffer.asLongBuffer().put(fingerprints);
+			StringBuilder builder = new StringBuilder();
+			for (double accumulator : accumulators) {
+				builder.append(accumulator).append(',');
+			}
+			return builder.append(Base64Util.toBase64(buffer.array())).toString();
+		}
+
+		static DayState deserialize(String serialized, AttenuationHistogram histogram) {
+			String[] parts = serialized.split(",", -1);
+			double[] accumulators = new double[parts.length - 1];
+			for (int i = 0; i < accumulators.length; i++) {
+				accumulators[i] = Double.parseDouble(parts[i]);
+			}
+			byte[] bytes = Base64Util.fromBase64(parts[parts.length - 1]);
+			long[] fingerprints = new long[bytes.length / 8];
+			ByteBuffer.wrap(bytes).asLongBuffer().get(fingerprints);
+			return new DayState(fingerprints, accumulators, histogram);
+		}
+
+	}
+
+}
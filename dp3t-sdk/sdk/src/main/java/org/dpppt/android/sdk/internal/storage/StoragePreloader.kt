@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.storage
+
+import android.content.Context
+import android.os.SystemClock
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import org.dpppt.android.sdk.internal.AppConfigManager
+import org.dpppt.android.sdk.internal.SdkScope
+import org.dpppt.android.sdk.internal.logger.Logger
+
+/**
+ * Opens the storage of the SDK in the background, so the first [org.dpppt.android.sdk.DP3T.getStatus] on the main thread
+ * finds the encryption primitives initialized, the preferences parsed, the legacy stores migrated and the record stores
+ * decrypted. The stores are singletons with a synchronized getInstance, so a caller that arrives while the preload is still
+ * running waits for it instead of loading the same store a second time.
+ */
+object StoragePreloader {
+
+	private const val TAG = "StoragePreloader"
+
+	private var preload: Deferred<Unit>? = null
+
+	/** duration of the preload in milliseconds, or -1 while it did not finish */
+	@JvmStatic
+	@Volatile
+	var preloadDuration = -1L
+		private set
+
+	@JvmStatic
+	@Synchronized
+	fun preload(context: Context) {
+		if (preload != null) return
+		val appContext = context.applicationContext
+		preload = SdkScope.async {
+			val start = SystemClock.elapsedRealtime()
+			try {
+				// the master key and the primitives first, the stores below need them
+				CryptoProvider.getInstance(appContext).warmUp()
+				AppConfigManager.getInstance(appContext).config
+				ExposureDayStorage.getInstance(appContext).exposureDays
+				ErrorNotificationStorage.getInstance(appContext).savedActiveErrors
+			} catch (e: Exception) {
+				// a store that failed to open is opened again, and fails visibly, on its first regular use
+				Logger.e(TAG, "preload failed", e)
+			}
+			preloadDuration = SystemClock.elapsedRealtime() - start
+			Logger.d(TAG, "preloaded storage in " + preloadDuration + "ms")
+		}
+	}
+
+	/**
+	 * Blocks until the preload finished, if one was started.
+	 */
+	@JvmStatic
+	fun awaitPreload() {
+		val deferred = synchronized(this) { preload } ?: return
+		runBlocking { deferred.await() }
+	}
+
+}
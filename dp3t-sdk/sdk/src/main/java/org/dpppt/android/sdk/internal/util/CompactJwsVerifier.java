@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.internal.util;
+
+import android.util.Base64;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.dpppt.android.sdk.backend.SignatureException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Verifier for compact ES256 JWS, as used by the bucket backend. Only ES256 is accepted, and the exp and nbf claims are checked
+ * without clock skew. The error messages of signature and expiration failures match those of jjwt.
+ */
+public class CompactJwsVerifier {
+
+	private static final String ALGORITHM = "ES256";
+	private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+	private static final int COORDINATE_LENGTH = 32;
+
+	private static final String SIGNATURE_MISMATCH_MESSAGE = "JWT signature does not match locally computed signature. " +
+			"JWT validity cannot be asserted and should not be trusted.";
+
+	private final PublicKey publicKey;
+
+	public CompactJwsVerifier(PublicKey publicKey) {
+		this.publicKey = publicKey;
+	}
+
+	/**
+	 * @return the claims of the JWS, if its signature is valid and it is neither expired nor premature
+	 */
+	public JSONObject verify(String jws) throws SignatureException {
+		int headerEnd = jws.indexOf('.');
+		int payloadEnd = jws.indexOf('.', headerEnd + 1);
+		if (headerEnd <= 0 || payloadEnd < 0 || jws.indexOf('.', payloadEnd + 1) >= 0) {
+			throw new SignatureException("Malformed JWS");
+		}
+
+		JSONObject claims;
+		byte[] signature;
+		try {
+			JSONObject header = new JSONObject(decodeToString(jws.substring(0, headerEnd)));
+			if (!ALGORITHM.equals(header.optString("alg"))) {
+				throw new SignatureException("Unsupported JWS algorithm " + header.optString("alg"));
+			}
+			claims = new JSONObject(decodeToString(jws.substring(headerEnd + 1, payloadEnd)));
+			signature = decode(jws.substring(payloadEnd + 1));
+		} catch (JSONException | IllegalArgumentException e) {
+			throw new SignatureException("Malformed JWS", e);
+		}
+
+		if (!isSignatureValid(jws.substring(0, payloadEnd).getBytes(StandardCharsets.US_ASCII), signature)) {
+			throw new SignatureException(SIGNATURE_MISMATCH_MESSAGE);
+		}
+
+		long now = System.currentTimeMillis();
+		if (claims.has("exp")) {
+			long expiration = claims.optLong("exp") * 1000;
+			if (now > expiration) {
+				throw new SignatureException("JWT expired at " + formatDate(expiration) + ". Current time: " + formatDate(now) +
+						", a difference of " + (now - expiration) + " milliseconds.  Allowed clock skew: 0 milliseconds.");
+			}
+		}
+		if (claims.has("nbf")) {
+			long notBefore = claims.optLong("nbf") * 1000;
+			if (now < notBefore) {
+				throw new SignatureException("JWT must not be accepted before " + formatDate(notBefore) + ". Current time: " +
+						formatDate(now) + ", a difference of " + (notBefore - now) + " milliseconds.  Allowed clock skew: 0 " +
+						"milliseconds.");
+			}
+		}
+		return claims;
+	}
+
+	private boolean isSignatureValid(byte[] signingInput, byte[] signature) throws SignatureException {
+		if (signature.length != 2 * COORDINATE_LENGTH) {
+			throw new SignatureException(SIGNATURE_MISMATCH_MESSAGE);
+		}
+		try {
+			Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+			verifier.initVerify(publicKey);
+			verifier.update(signingInput);
+			return verifier.verify(toDer(signature));
+		} catch (GeneralSecurityException e) {
+			throw new SignatureException(SIGNATURE_MISMATCH_MESSAGE, e);
+		}
+	}
+
+	/**
+	 * Converts the concatenated R and S values of a JWS signature to the ASN.1 sequence expected by {@link Signature}.
+	 */
+	private static byte[] toDer(byte[] signature) throws SignatureException {
+		byte[] r = toDerInteger(signature, 0);
+		byte[] s = toDerInteger(signature, COORDINATE_LENGTH);
+		byte[] der = new byte[2 + r.length + s.length];
+		der[0] = 0x30;
+		der[1] = (byte) (r.length + s.length);
+		System.arraycopy(r, 0, der, 2, r.length);
+		System.arraycopy(s, 0, der, 2 + r.length, s.length);
+		return der;
+	}
+
+	private static byte[] toDerInteger(byte[] signature, int offset) throws SignatureException {
+		int start = offset;
+		int end = offset + COORDINATE_LENGTH;
+		while (start < end && signature[start] == 0) {
+			start++;
+		}
+		if (start == end) {
+			// a zero value would be accepted by some ECDSA implementations
+			throw new SignatureException(SIGNATURE_MISMATCH_MESSAGE);
+		}
+		boolean padding = (signature[start] & 0x80) != 0;
+		int length = end - start + (padding ? 1 : 0);
+		byte[] integer = new byte[2 + length];
+		integer[0] = 0x02;
+		integer[1] = (byte) length;
+		System.arraycopy(signature, start, integer, padding ? 3 : 2, end - start);
+		return integer;
+	}
+
+	private static byte[] decode(String base64Url) {
+		return Base64.decode(base64Url, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+	}
+
+	private static String decodeToString(String base64Url) {
+		return new String(decode(base64Url), StandardCharsets.UTF_8);
+	}
+
+	private static String formatDate(long time) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(time));
+	}
+
+}
@@ -9,44 +9,114 @@
  */
 package org.dpppt.android.sdk.models;
 
+import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.dpppt.android.sdk.internal.TrustedTime;
+
+/**
+ * A day in UTC, represented by the number of days since 1970-01-01. All arithmetic is done on the epoch day, dates are only
+ * converted when they are formatted or parsed.
+ */
+@JsonAdapter(DayDate.GsonAdapter.class)
 public class DayDate implements Comparable {
 
-	private long timestampRepresentation;
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	// the Gregorian calendar of SimpleDateFormat switches to the Julian calendar before 1583, the four digit format ends in 9999
+	private static final long MIN_FAST_EPOCH_DAY = daysFromCivil(1583, 1, 1);
+	private static final long MAX_FAST_EPOCH_DAY = daysFromCivil(9999, 12, 31);
+
+	private static final ThreadLocal<SimpleDateFormat> DAY_DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			SimpleDateFormat dayDateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
+			dayDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return dayDateFormat;
+		}
+	};
+
+	private final int epochDay;
 
 	public DayDate() {
-		this(System.currentTimeMillis());
+		this(TrustedTime.now());
 	}
 
 	public DayDate(String dayDate) throws ParseException {
-		timestampRepresentation = convertToDay(getDayDateFormat().parse(dayDate).getTime());
+		long parsedEpochDay = parseEpochDay(dayDate);
+		if (parsedEpochDay == Long.MIN_VALUE) {
+			parsedEpochDay = toEpochDay(DAY_DATE_FORMAT.get().parse(dayDate).getTime());
+		}
+		epochDay = (int) parsedEpochDay;
 	}
 
 	public DayDate(long timestamp) {
-		timestampRepresentation = convertToDay(timestamp);
+		epochDay = (int) toEpochDay(timestamp);
+	}
+
+	// takes an epoch day, unlike the public constructor that takes a timestamp
+	private DayDate(int epochDay) {
+		this.epochDay = epochDay;
+	}
+
+	public static DayDate fromEpochDay(long epochDay) {
+		return new DayDate((int) epochDay);
 	}
 
 	public String formatAsString() {
-		return getDayDateFormat().format(new Date(timestampRepresentation));
+		if (epochDay < MIN_FAST_EPOCH_DAY || epochDay > MAX_FAST_EPOCH_DAY) {
+			return DAY_DATE_FORMAT.get().format(new Date(getStartOfDayTimestamp()));
+		}
+		// civil from days, see http://howardhinnant.github.io/date_algorithms.html
+		long z = epochDay + 719468;
+		long era = z / 146097;
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+		int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+		int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+		char[] chars = new char[10];
+		chars[0] = (char) ('0' + year / 1000);
+		chars[1] = (char) ('0' + year / 100 % 10);
+		chars[2] = (char) ('0' + year / 10 % 10);
+		chars[3] = (char) ('0' + year % 10);
+		chars[4] = '-';
+		chars[5] = (char) ('0' + month / 10);
+		chars[6] = (char) ('0' + month % 10);
+		chars[7] = '-';
+		chars[8] = (char) ('0' + day / 10);
+		chars[9] = (char) ('0' + day % 10);
+		return new String(chars);
 	}
 
 	public DayDate getNextDay() {
-		Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
-		calendar.setTimeInMillis(timestampRepresentation);
-		calendar.add(Calendar.DATE, 1);
-		return new DayDate(calendar.getTimeInMillis());
+		return new DayDate(epochDay + 1);
+	}
+
+	public long getEpochDay() {
+		return epochDay;
 	}
 
 	public long getStartOfDayTimestamp() {
-		return timestampRepresentation;
+		return epochDay * DAY_MILLIS;
 	}
 
 	public long getStartOfDay(TimeZone timeZone) {
+		// rarely used, the calendar resolves the daylight saving time transitions of the time zone
 		Calendar cal_utc = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
-		cal_utc.setTimeInMillis(timestampRepresentation);
+		cal_utc.setTimeInMillis(getStartOfDayTimestamp());
 		Calendar cal_timezone = new GregorianCalendar(timeZone);
 		cal_timezone.set(Calendar.YEAR, cal_utc.get(Calendar.YEAR));
 		cal_timezone.set(Calendar.MONTH, cal_utc.get(Calendar.MONTH));
@@ -59,25 +129,77 @@ public class DayDate implements Comparable {
 	}
 
 	public boolean isBefore(DayDate other) {
-		return timestampRepresentation < other.timestampRepresentation;
+		return epochDay < other.epochDay;
 	}
 
 	public boolean isBeforeOrEquals(DayDate other) {
-		return timestampRepresentation <= other.timestampRepresentation;
+		return epochDay <= other.epochDay;
 	}
 
 	public boolean isBeforeOrEquals(long timestamp) {
-		return timestampRepresentation <= timestamp;
+		return getStartOfDayTimestamp() <= timestamp;
 	}
 
-	private long convertToDay(long time) {
-		Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
-		calendar.setTimeInMillis(time);
-		calendar.set(Calendar.HOUR_OF_DAY, 0);
-		calendar.set(Calendar.MINUTE, 0);
-		calendar.set(Calendar.SECOND, 0);
-		calendar.set(Calendar.MILLISECOND, 0);
-		return calendar.getTimeInMillis();
+	private static long toEpochDay(long timestamp) {
+		// floor division, timestamps before 1970 belong to the previous day
+		long epochDay = timestamp / DAY_MILLIS;
+		if (timestamp % DAY_MILLIS < 0) {
+			epochDay--;
+		}
+		return epochDay;
+	}
+
+	/**
+	 * @return the epoch day of a date in the format yyyy-MM-dd, or Long.MIN_VALUE if the date needs the lenient parser
+	 */
+	private static long parseEpochDay(String dayDate) {
+		if (dayDate.length() != 10 || dayDate.charAt(4) != '-' || dayDate.charAt(7) != '-') {
+			return Long.MIN_VALUE;
+		}
+		int year = parseDigits(dayDate, 0, 4);
+		int month = parseDigits(dayDate, 5, 7);
+		int day = parseDigits(dayDate, 8, 10);
+		if (year < 1583 || month < 1 || month > 12 || day < 1 || day > getLengthOfMonth(year, month)) {
+			return Long.MIN_VALUE;
+		}
+		return daysFromCivil(year, month, day);
+	}
+
+	private static int parseDigits(String string, int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			char c = string.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static int getLengthOfMonth(int year, int month) {
+		switch (month) {
+			case 2:
+				boolean leapYear = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+				return leapYear ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+
+	private static long daysFromCivil(int year, int month, int day) {
+		// days from civil, see http://howardhinnant.github.io/date_algorithms.html
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
 	}
 
 	@Override
@@ -85,19 +207,16 @@ public class DayDate implements Comparable {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		DayDate dayDate = (DayDate) o;
-		return timestampRepresentation == dayDate.timestampRepresentation;
+		return epochDay == dayDate.epochDay;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(timestampRepresentation);
+		return epochDay;
 	}
 
 	public DayDate addDays(int days) {
-		Calendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
-		cal.setTimeInMillis(timestampRepresentation);
-		cal.add(Calendar.DATE, days);
-		return new DayDate(cal.getTimeInMillis());
+		return new DayDate(epochDay + days);
 	}
 
 	public DayDate subtractDays(int days) {
@@ -108,22 +227,53 @@ public class DayDate implements Comparable {
 	public int compareTo(Object o) {
 		if (o instanceof DayDate) {
 			DayDate other = (DayDate) o;
-			if (isBefore(other)) {
-				return -1;
-			} else if (other.isBefore(this)) {
-				return 1;
-			} else {
-				return 0;
-			}
+			return epochDay < other.epochDay ? -1 : (epochDay == other.epochDay ? 0 : 1);
 		} else {
 			return -1;
 		}
 	}
 
-	private SimpleDateFormat getDayDateFormat() {
-		SimpleDateFormat dayDateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
-		dayDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-		return dayDateFormat;
+	/**
+	 * Keeps the JSON format of the stored days, which was the start of the day in milliseconds.
+	 */
+	static class GsonAdapter extends TypeAdapter<DayDate> {
+
+		private static final String FIELD_TIMESTAMP = "timestampRepresentation";
+
+		@Override
+		public void write(JsonWriter out, DayDate value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			out.name(FIELD_TIMESTAMP).value(value.getStartOfDayTimestamp());
+			out.endObject();
+		}
+
+		@Override
+		public DayDate read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			DayDate dayDate = null;
+			in.beginObject();
+			while (in.hasNext()) {
+				if (FIELD_TIMESTAMP.equals(in.nextName())) {
+					dayDate = new DayDate(in.nextLong());
+				} else {
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			if (dayDate == null) {
+				// like the reflective adapter, a missing timestamp is the epoch
+				dayDate = fromEpochDay(0);
+			}
+			return dayDate;
+		}
+
 	}
 
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2022 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+package org.dpppt.android.sdk.util;
+
+import java.security.PublicKey;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dpppt.android.sdk.backend.SignatureException;
+import org.dpppt.android.sdk.internal.util.Base64Util;
+import org.dpppt.android.sdk.internal.util.CompactJwsVerifier;
+import org.json.JSONObject;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import okio.ByteString;
+
+/**
+ * Verifies JWS signatures with a fixed public key. The parser is built once and can be shared between threads. The content
+ * hashes of recently verified signatures are cached by the digest of the JWS, so repeated responses skip the ECDSA
+ * verification as long as the signature has not expired.
+ */
+public class JwsVerifier {
+
+	public static final int DEFAULT_CACHE_SIZE = 16;
+
+	public enum Engine {
+		/**
+		 * Parses the JWS with jjwt, accepting every algorithm jjwt supports for the key.
+		 */
+		JJWT,
+		/**
+		 * Only accepts ES256 signatures and verifies them with the platform {@link java.security.Signature}, without
+		 * initializing jjwt and its JSON and reflection machinery.
+		 */
+		BUILT_IN
+	}
+
+	private final PublicKey publicKey;
+	private final JwtParser parser;
+	private final CompactJwsVerifier compactVerifier;
+	private final Map<ByteString, VerifiedJws> cache;
+
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong verifications = new AtomicLong();
+
+	public JwsVerifier(PublicKey publicKey) {
+		this(publicKey, DEFAULT_CACHE_SIZE);
+	}
+
+	public JwsVerifier(PublicKey publicKey, int cacheSize) {
+		this(publicKey, cacheSize, Engine.JJWT);
+	}
+
+	public JwsVerifier(PublicKey publicKey, Engine engine) {
+		this(publicKey, DEFAULT_CACHE_SIZE, engine);
+	}
+
+	public JwsVerifier(PublicKey publicKey, int cacheSize, Engine engine) {
+		this.publicKey = publicKey;
+		if (engine == Engine.BUILT_IN) {
+			this.parser = null;
+			this.compactVerifier = new CompactJwsVerifier(publicKey);
+		} else {
+			this.parser = Jwts.parserBuilder().setSigningKey(publicKey).build();
+			this.compactVerifier = null;
+		}
+		this.cache = new LinkedHashMap<ByteString, VerifiedJws>(cacheSize, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteString, VerifiedJws> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	public PublicKey getPublicKey() {
+		return publicKey;
+	}
+
+	public byte[] getVerifiedContentHash(String jws) throws SignatureException {
+		ByteString key = ByteString.encodeUtf8(jws).sha256();
+		synchronized (cache) {
+			VerifiedJws verifiedJws = cache.get(key);
+			if (verifiedJws != null) {
+				if (!verifiedJws.isExpired()) {
+					cacheHits.incrementAndGet();
+					return verifiedJws.contentHash.clone();
+				}
+				// verify again, so the expiration is reported like for any other signature
+				cache.remove(key);
+			}
+		}
+
+		verifications.incrementAndGet();
+		VerifiedJws verifiedJws = parser != null ? parseWithJjwt(jws) : parseWithCompactVerifier(jws);
+		synchronized (cache) {
+			cache.put(key, verifiedJws);
+		}
+		return verifiedJws.contentHash.clone();
+	}
+
+	private VerifiedJws parseWithJjwt(String jws) throws SignatureException {
+		try {
+			Jws<Claims> claimsJws = parser.parseClaimsJws(jws);
+			String hash64 = claimsJws.getBody().get(SignatureUtil.JWS_CLAIM_CONTENT_HASH, String.class);
+			return new VerifiedJws(Base64Util.fromBase64(hash64), claimsJws.getBody().getExpiration());
+		} catch (io.jsonwebtoken.security.SignatureException | ExpiredJwtException e) {
+			throw new SignatureException(e.getMessage(), e);
+		}
+	}
+
+	private VerifiedJws parseWithCompactVerifier(String jws) throws SignatureException {
+		JSONObject claims = compactVerifier.verify(jws);
+		String hash64 = claims.optString(SignatureUtil.JWS_CLAIM_CONTENT_HASH, null);
+		if (hash64 == null) {
+			throw new SignatureException("JWS claim " + SignatureUtil.JWS_CLAIM_CONTENT_HASH + " not found");
+		}
+		Date expiration = claims.has("exp") ? new Date(claims.optLong("exp") * 1000) : null;
+		return new VerifiedJws(Base64Util.fromBase64(hash64), expiration);
+	}
+
+	public long getCacheHitCount() {
+		return cacheHits.get();
+	}
+
+	public long getVerificationCount() {
+		return verifications.get();
+	}
+
+	private static class VerifiedJws {
+
+		private final byte[] contentHash;
+		private final Date expiration;
+
+		VerifiedJws(byte[] contentHash, Date expiration) {
+			this.contentHash = contentHash;
+			this.expiration = expiration;
+		}
+
+		boolean isExpired() {
+			return expiration != null && expiration.getTime() < System.currentTimeMillis();
+		}
+
+	}
+
+}
@@ -67,6 +67,9 @@ public class SignatureUtil {
 		}
 	}
 
+	/**
+	 * Builds a new parser for every call, use a {@link JwsVerifier} to verify several signatures with the same key.
+	 */
 	public static byte[] getVerifiedContentHash(String jws, PublicKey publicKey) throws SignatureException {
 		try {
 			Jws<Claims> claimsJws = Jwts.parserBuilder()